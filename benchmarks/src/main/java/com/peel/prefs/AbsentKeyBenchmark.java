@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Measures probes for keys that are not present in the prefs file, with and without
+ * {@link Prefs#setAbsentKeyCachingEnabled(boolean)}.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar AbsentKeyBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AbsentKeyBenchmark {
+
+    @Param({"false", "true"})
+    public boolean absentKeyCaching;
+
+    private Prefs prefs;
+    private TypedKey<String> stringKey;
+    private TypedKey<PrefsBenchmark.Customer> pojoKey;
+
+    @Setup
+    public void setUp() {
+        prefs = new Prefs(BenchmarkFixtures.createContext(PrefsBenchmark.PREFS_FILE), new Gson(), PrefsBenchmark.PREFS_FILE, 25);
+        prefs.setAbsentKeyCachingEnabled(absentKeyCaching);
+        for (int i = 0; i < 100; ++i) {
+            prefs.put(new TypedKey<>("key" + i, Integer.class), i);
+        }
+        stringKey = new TypedKey<>("absentString", String.class);
+        pojoKey = new TypedKey<>("absentPojo", PrefsBenchmark.Customer.class);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return prefs.contains(stringKey);
+    }
+
+    @Benchmark
+    public String getWithDefault() {
+        return prefs.get(stringKey, "default");
+    }
+
+    @Benchmark
+    public Object getPojo() {
+        return prefs.get(pojoKey);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objenesis.ObjenesisStd;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+/**
+ * Creates {@link Prefs} instances backed by {@link InMemorySharedPreferences} so that
+ * benchmarks can run on a plain JVM.
+ *
+ * @author Inderjeet Singh
+ */
+final class BenchmarkFixtures {
+
+    /**
+     * A context that only knows how to return prefs files. The android jar only has stubs
+     * that throw, so it is instantiated without running any constructor. A mocking library
+     * is deliberately not used here since its invocation overhead would dwarf the code
+     * under measurement.
+     */
+    static class BenchmarkContext extends ContextWrapper {
+        Map<String, SharedPreferences> prefsFiles;
+
+        private BenchmarkContext() {
+            super(null);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return prefsFiles.get(name);
+        }
+    }
+
+    /**
+     * @return a context on which {@link Context#getSharedPreferences(String, int)} returns
+     *   a separate {@link InMemorySharedPreferences} for each of the specified file names.
+     */
+    static Context createContext(String... prefsFileNames) {
+        return createContext(false, prefsFileNames);
+    }
+
+    /**
+     * @param simulateFileWrites whether each apply should simulate rewriting the prefs file,
+     *   see {@link InMemorySharedPreferences#InMemorySharedPreferences(boolean)}
+     */
+    static Context createContext(boolean simulateFileWrites, String... prefsFileNames) {
+        BenchmarkContext context = new ObjenesisStd().newInstance(BenchmarkContext.class);
+        context.prefsFiles = new HashMap<>();
+        for (String prefsFileName : prefsFileNames) {
+            context.prefsFiles.put(prefsFileName, new InMemorySharedPreferences(simulateFileWrites));
+        }
+        return context;
+    }
+
+    private BenchmarkFixtures() {} // Not instantiable
+}
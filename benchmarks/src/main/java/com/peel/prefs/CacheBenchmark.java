@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Compares {@link ConcurrentValueCache} with the {@link android.util.LruCache} based
+ * {@link LruValueCache} for cache hits through {@link Prefs#get(TypedKey)} and
+ * {@link Prefs#contains(TypedKey)} with 1, 4 and 16 threads reading concurrently.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar CacheBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    private static final int KEY_COUNT = 64;
+
+    public enum CacheType { LRU, CONCURRENT }
+
+    @Param
+    public CacheType cacheType;
+
+    private Prefs prefs;
+    private TypedKey<String>[] keys;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setUp() {
+        ValueCache cache = cacheType == CacheType.LRU
+                ? new LruValueCache(KEY_COUNT) : new ConcurrentValueCache(KEY_COUNT);
+        prefs = new Prefs(BenchmarkFixtures.createContext(PrefsBenchmark.PREFS_FILE), new Gson(), PrefsBenchmark.PREFS_FILE, cache);
+        keys = new TypedKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            keys[i] = new TypedKey<>("key" + i, String.class);
+            prefs.put(keys[i], "value" + i);
+        }
+    }
+
+    private TypedKey<String> nextKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+    }
+
+    @Benchmark @Threads(1)
+    public String get_1() {
+        return prefs.get(nextKey());
+    }
+
+    @Benchmark @Threads(4)
+    public String get_4() {
+        return prefs.get(nextKey());
+    }
+
+    @Benchmark @Threads(16)
+    public String get_16() {
+        return prefs.get(nextKey());
+    }
+
+    @Benchmark @Threads(1)
+    public boolean contains_1() {
+        return prefs.contains(nextKey());
+    }
+
+    @Benchmark @Threads(4)
+    public boolean contains_4() {
+        return prefs.contains(nextKey());
+    }
+
+    @Benchmark @Threads(16)
+    public boolean contains_16() {
+        return prefs.contains(nextKey());
+    }
+}
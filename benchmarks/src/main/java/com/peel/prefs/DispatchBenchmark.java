@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import com.peel.prefs.PrefsBenchmark.ValueType;
+
+/**
+ * Measures the cost of dispatching a non-cacheable get or put to the code that reads or
+ * writes its type. {@code BOOLEAN} is handled first, {@code BYTE} and {@code STRING_SET}
+ * are at the end of the native types and {@code POJO} is handled by Gson.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar DispatchBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    @Param({"BOOLEAN", "BYTE", "STRING_SET", "POJO"})
+    public ValueType type;
+
+    private Prefs prefs;
+    private TypedKey<Object> key;
+    private Object value;
+
+    @Setup
+    public void setUp() {
+        prefs = new Prefs(BenchmarkFixtures.createContext(PrefsBenchmark.PREFS_FILE), new Gson(), PrefsBenchmark.PREFS_FILE, 25);
+        key = type.newKey("key", PrefsBenchmark.PREFS_FILE, false);
+        value = type.value;
+        prefs.put(key, value);
+    }
+
+    @Benchmark
+    public Object get() {
+        return prefs.get(key);
+    }
+
+    @Benchmark
+    public void put() {
+        prefs.put(key, value);
+    }
+}
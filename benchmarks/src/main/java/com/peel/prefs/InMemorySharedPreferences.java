@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.SharedPreferences;
+
+/**
+ * A thread-safe in-memory {@link SharedPreferences} that stands in for the Android
+ * implementation when running benchmarks on a plain JVM. There is no disk I/O, so the
+ * numbers isolate the cost of {@link Prefs} itself, unless file writes are simulated.
+ *
+ * @author Inderjeet Singh
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> map = new ConcurrentHashMap<>();
+    private final List<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final boolean simulateFileWrites;
+    private volatile int fileSize; // keeps the simulated file write from being optimized away
+
+    public InMemorySharedPreferences() {
+        this(false);
+    }
+
+    /**
+     * @param simulateFileWrites if true, every commit or apply copies the whole map and
+     *   serializes it to XML in memory, as Android does when it rewrites the prefs file
+     */
+    public InMemorySharedPreferences(boolean simulateFileWrites) {
+        this.simulateFileWrites = simulateFileWrites;
+    }
+
+    private void writeToFile() {
+        Map<String, Object> copy = new HashMap<>(map);
+        StringBuilder xml = new StringBuilder(64 * copy.size());
+        xml.append("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (Map.Entry<String, Object> entry : copy.entrySet()) {
+            xml.append("    <entry name=\"").append(entry.getKey()).append("\" value=\"")
+                .append(entry.getValue()).append("\" />\n");
+        }
+        xml.append("</map>\n");
+        fileSize = xml.length();
+    }
+
+    @Override public Map<String, ?> getAll() {
+        return new HashMap<>(map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String key, T defValue) {
+        Object value = map.get(key);
+        return value == null ? defValue : (T) value;
+    }
+
+    @Override public String getString(String key, String defValue) {
+        return get(key, defValue);
+    }
+
+    @Override public Set<String> getStringSet(String key, Set<String> defValues) {
+        return get(key, defValues);
+    }
+
+    @Override public int getInt(String key, int defValue) {
+        return get(key, defValue);
+    }
+
+    @Override public long getLong(String key, long defValue) {
+        return get(key, defValue);
+    }
+
+    @Override public float getFloat(String key, float defValue) {
+        return get(key, defValue);
+    }
+
+    @Override public boolean getBoolean(String key, boolean defValue) {
+        return get(key, defValue);
+    }
+
+    @Override public boolean contains(String key) {
+        return map.containsKey(key);
+    }
+
+    @Override public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private final class InMemoryEditor implements Editor {
+        private final Map<String, Object> modified = new HashMap<>();
+        private boolean clear;
+
+        private Editor stage(String key, Object value) {
+            modified.put(key, value == null ? REMOVED : value);
+            return this;
+        }
+
+        @Override public Editor putString(String key, String value) {
+            return stage(key, value);
+        }
+
+        @Override public Editor putStringSet(String key, Set<String> values) {
+            return stage(key, values);
+        }
+
+        @Override public Editor putInt(String key, int value) {
+            return stage(key, value);
+        }
+
+        @Override public Editor putLong(String key, long value) {
+            return stage(key, value);
+        }
+
+        @Override public Editor putFloat(String key, float value) {
+            return stage(key, value);
+        }
+
+        @Override public Editor putBoolean(String key, boolean value) {
+            return stage(key, value);
+        }
+
+        @Override public Editor remove(String key) {
+            return stage(key, REMOVED);
+        }
+
+        @Override public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override public boolean commit() {
+            List<String> changed = new ArrayList<>(modified.size());
+            synchronized (InMemorySharedPreferences.this) {
+                if (clear) map.clear();
+                for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    if (value == REMOVED) {
+                        map.remove(key);
+                    } else {
+                        map.put(key, value);
+                    }
+                    changed.add(key);
+                }
+            }
+            if (simulateFileWrites) writeToFile();
+            for (OnSharedPreferenceChangeListener listener : listeners) {
+                for (String key : changed) {
+                    listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+                }
+            }
+            return true;
+        }
+
+        @Override public void apply() {
+            commit();
+        }
+    }
+}
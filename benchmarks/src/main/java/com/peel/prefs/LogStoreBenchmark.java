@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Compares the throughput of putting a single key into a large prefs file when every apply
+ * rewrites the file, as {@code SharedPreferences} does, and when the change is appended to
+ * a {@link LogStore}. The simulated rewrite only serializes the file to memory, so the
+ * real difference on a device, where the file also has to be written to flash, is larger.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar LogStoreBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogStoreBenchmark {
+
+    @Param({"SHARED_PREFERENCES", "LOG"})
+    public String store;
+
+    @Param({"200", "2000"})
+    public int keys;
+
+    private Prefs prefs;
+    private LogStore logStore;
+    private File file;
+    private ExecutorService compactor;
+    private LongKey position;
+    private long value;
+
+    @Setup
+    public void setUp() throws IOException {
+        PrefsStore prefsStore;
+        if (store.equals("LOG")) {
+            file = File.createTempFile("prefs", ".log");
+            compactor = Executors.newSingleThreadExecutor();
+            logStore = new LogStore(file, compactor);
+            prefsStore = logStore;
+        } else {
+            prefsStore = new SharedPreferencesStore(new InMemorySharedPreferences(true));
+        }
+        prefs = new Prefs(prefsStore, new Gson(), PrefsBenchmark.PREFS_FILE, new ConcurrentValueCache(25));
+        Prefs.Batch batch = prefs.edit();
+        for (int i = 0; i < keys; ++i) {
+            batch.put(new TypedKey<>("config" + i, String.class), "a typical config value " + i);
+        }
+        batch.apply();
+        position = new LongKey("position");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (logStore != null) {
+            compactor.shutdown();
+            logStore.close();
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void put() {
+        prefs.putLong(position, ++value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Measures {@link Prefs#get(TypedKey)} and {@link Prefs#put(TypedKey, Object)} for every
+ * type that {@link Prefs} stores natively, plus a Gson serialized POJO.
+ *
+ * <p>Each type is measured with the value served from the in-memory cache ({@code HIT}),
+ * with a cacheable key whose value is not in the cache ({@code MISS}) and with a key that
+ * is not cacheable at all ({@code UNCACHED}). For puts, {@code HIT} and {@code MISS} are
+ * equivalent since a put always refreshes the cache for cacheable keys.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar PrefsBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrefsBenchmark {
+
+    public enum CacheMode { HIT, MISS, UNCACHED }
+
+    public enum ValueType {
+        BOOLEAN(Boolean.class, Boolean.TRUE),
+        STRING(String.class, "19999999999"),
+        INTEGER(Integer.class, 42),
+        LONG(Long.class, 1234567890123L),
+        FLOAT(Float.class, 1.5f),
+        DOUBLE(Double.class, 2.5d),
+        SHORT(Short.class, (short) 7),
+        BYTE(Byte.class, (byte) 3),
+        STRING_SET(new TypeToken<Set<String>>() {}, new HashSet<>(Arrays.asList("a", "b", "c"))),
+        POJO(new TypeToken<Customer>() {}, Customer.sample());
+
+        private final Class<?> clazz;
+        private final TypeToken<?> typeToken;
+        final Object value;
+
+        ValueType(Class<?> clazz, Object value) {
+            this.clazz = clazz;
+            this.typeToken = null;
+            this.value = value;
+        }
+
+        ValueType(TypeToken<?> typeToken, Object value) {
+            this.clazz = null;
+            this.typeToken = typeToken;
+            this.value = value;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        TypedKey<Object> newKey(String name, String prefsFileName, boolean cacheable) {
+            return clazz != null
+                    ? new TypedKey(name, clazz, prefsFileName, cacheable)
+                    : new TypedKey(name, typeToken, prefsFileName, cacheable);
+        }
+    }
+
+    static final class Customer {
+        String name;
+        String phone;
+        List<String> addresses;
+        int visits;
+
+        static Customer sample() {
+            Customer customer = new Customer();
+            customer.name = "Jane Doe";
+            customer.phone = "+1-650-555-0100";
+            customer.addresses = Arrays.asList("1 Main St, Palo Alto, CA", "2 Market St, San Francisco, CA");
+            customer.visits = 17;
+            return customer;
+        }
+    }
+
+    static final String PREFS_FILE = "benchmark";
+
+    @Param
+    public ValueType type;
+
+    @Param
+    public CacheMode cacheMode;
+
+    private Prefs prefs;
+    private TypedKey<Object> key;
+    private Object value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        prefs = new Prefs(BenchmarkFixtures.createContext(PREFS_FILE), new Gson(), PREFS_FILE, 25);
+        key = type.newKey("key", PREFS_FILE, cacheMode != CacheMode.UNCACHED);
+        value = type.value;
+        prefs.put(key, value);
+    }
+
+    @Setup(Level.Iteration)
+    public void prepareCache() {
+        if (cacheMode == CacheMode.HIT) {
+            prefs.put(key, value);
+        } else {
+            prefs.cache.clear();
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        return prefs.get(key);
+    }
+
+    @Benchmark
+    public void put() {
+        prefs.put(key, value);
+    }
+}
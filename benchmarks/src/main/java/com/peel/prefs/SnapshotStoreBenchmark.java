@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a cold start on a large, read-mostly prefs file: opening the store and reading
+ * a few of its keys. A {@link SnapshotStore} maps the file and searches it, while a
+ * {@link LogStore} has to scan every record to build its index.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar SnapshotStoreBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotStoreBenchmark {
+
+    private static final Executor UNUSED = new Executor() {
+        @Override public void execute(Runnable command) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Param({"SNAPSHOT", "LOG"})
+    public String store;
+
+    @Param({"5000"})
+    public int keys;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < keys; ++i) {
+            values.put("config" + i, "{\"enabled\":true,\"rollout\":" + i + ",\"name\":\"a typical config value\"}");
+        }
+        if (store.equals("SNAPSHOT")) {
+            file = File.createTempFile("prefs", ".snapshot");
+            SnapshotStore.write(file, values);
+        } else {
+            file = File.createTempFile("prefs", ".log");
+            file.delete();
+            LogStore logStore = new LogStore(file, UNUSED);
+            PrefsStore.Editor editor = logStore.edit();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                editor.putString(entry.getKey(), (String) entry.getValue());
+            }
+            editor.commit();
+            logStore.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int openAndRead() throws IOException {
+        PrefsStore prefsStore = store.equals("SNAPSHOT") ? new SnapshotStore(file, UNUSED) : new LogStore(file, UNUSED);
+        int length = 0;
+        for (int i = 0; i < 3; ++i) {
+            length += prefsStore.getString("config" + (i * 1000), null).length();
+        }
+        ((Closeable) prefsStore).close();
+        return length;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compares reading a large JSON value from a {@link SnapshotStore}, and writing it to a
+ * {@link LogStore}, through a String and by streaming it. Run with the GC profiler to see
+ * the bytes allocated per operation, which is what streaming reduces: reading through a
+ * String also allocates the String and its UTF-8 bytes, and writing through a String
+ * allocates the String, the char array it was built in and its UTF-8 bytes.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar StreamingBenchmark -prof gc}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingBenchmark {
+
+    private static final String NAME = "catalog";
+
+    @Param({"STRING", "STREAMING"})
+    public String path;
+
+    @Param({"500"})
+    public int kilobytes;
+
+    private Codec<List<String>> codec;
+    private List<String> value;
+    private File snapshotFile;
+    private SnapshotStore snapshotStore;
+    private File logFile;
+    private LogStore logStore;
+    private ExecutorService executor;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setUp() throws IOException {
+        Gson gson = new Gson();
+        codec = (Codec<List<String>>) Codec.create(gson, new TypeToken<List<String>>() {}.getType());
+        value = new ArrayList<>();
+        int length = 2;
+        while (length < kilobytes * 1024) {
+            String item = "https://cdn.example.com/posters/show-" + value.size() + ".jpg";
+            value.add(item);
+            length += item.length() + 3;
+        }
+        executor = Executors.newSingleThreadExecutor();
+        snapshotFile = File.createTempFile("prefs", ".snapshot");
+        SnapshotStore.write(snapshotFile, Collections.singletonMap(NAME, codec.toJson(value)));
+        snapshotStore = new SnapshotStore(snapshotFile, executor);
+        logFile = File.createTempFile("prefs", ".log");
+        logStore = new LogStore(logFile, executor);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        logStore.close();
+        executor.shutdown();
+        snapshotFile.delete();
+        logFile.delete();
+    }
+
+    @Benchmark
+    public List<String> read() {
+        if (path.equals("STRING")) return codec.fromJson(snapshotStore.getString(NAME, null));
+        return codec.read(snapshotStore, NAME);
+    }
+
+    @Benchmark
+    public int write() {
+        PrefsStore.Editor editor = logStore.edit();
+        int weight;
+        if (path.equals("STRING")) {
+            String json = codec.toJson(value);
+            editor.putString(NAME, json);
+            weight = Codec.weighString(json.length());
+        } else {
+            weight = codec.write(editor, NAME, value);
+        }
+        editor.apply();
+        return weight;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compares the time to encode and decode common value shapes as JSON with Gson, the
+ * default, and with {@link BinaryCodec}, including the Base64 encoding with which bytes
+ * are stored in {@code SharedPreferences}. The sizes of the stored strings are listed in
+ * the README.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar ValueCodecBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValueCodecBenchmark {
+
+    public enum Shape { LIST_OF_LONGS, MAP_OF_INTS, ENUM }
+    public enum Format { JSON, BINARY }
+    public enum Quality { LOW, MEDIUM, HIGH, ULTRA }
+
+    @Param
+    public Shape shape;
+
+    @Param
+    public Format format;
+
+    private final Gson gson = new Gson();
+    private Type type;
+    private Object value;
+    private BinaryCodec<Object> binaryCodec;
+    private String stored;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setUp() {
+        TypeToken<?> token;
+        switch (shape) {
+        case LIST_OF_LONGS:
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 500; ++i) ids.add(1500000000000L + 7919L * i);
+            token = new TypeToken<List<Long>>() {};
+            value = ids;
+            break;
+        case MAP_OF_INTS:
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int i = 0; i < 200; ++i) counts.put("channel" + i, i * 13);
+            token = new TypeToken<Map<String, Integer>>() {};
+            value = counts;
+            break;
+        default:
+            token = TypeToken.get(Quality.class);
+            value = Quality.HIGH;
+        }
+        type = token.getType();
+        binaryCodec = (BinaryCodec<Object>) BinaryCodec.of(token);
+        stored = encode();
+    }
+
+    @Benchmark
+    public String encode() {
+        return format == Format.JSON ? gson.toJson(value, type) : Base64.encode(binaryCodec.encode(value));
+    }
+
+    @Benchmark
+    public Object decode() {
+        return format == Format.JSON ? gson.fromJson(stored, type) : binaryCodec.decode(Base64.decode(stored));
+    }
+}
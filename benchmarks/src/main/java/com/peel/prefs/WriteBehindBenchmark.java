@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Compares the throughput of repeatedly putting a frequently changing key, such as a
+ * playback position, when every put is applied and when write-behind is enabled. The prefs
+ * file holds 200 other keys and every apply simulates rewriting the file.
+ *
+ * <p>Run with: {@code java -jar target/benchmarks.jar WriteBehindBenchmark}
+ *
+ * @author Inderjeet Singh
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBehindBenchmark {
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    private Prefs prefs;
+    private ScheduledExecutorService executor;
+    private TypedKey<Long> position;
+    private long value;
+
+    @Setup
+    public void setUp() {
+        prefs = new Prefs(BenchmarkFixtures.createContext(true, PrefsBenchmark.PREFS_FILE), new Gson(), PrefsBenchmark.PREFS_FILE, 25);
+        Prefs.Batch batch = prefs.edit();
+        for (int i = 0; i < 200; ++i) {
+            batch.put(new TypedKey<>("config" + i, String.class), "value" + i);
+        }
+        batch.apply();
+        executor = Executors.newSingleThreadScheduledExecutor();
+        if (writeBehind) prefs.enableWriteBehind(executor, 100, 1000, TimeUnit.MILLISECONDS);
+        position = new TypedKey<>("position", Long.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        prefs.disableWriteBehind();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void put() {
+        prefs.put(position, ++value);
+    }
+}
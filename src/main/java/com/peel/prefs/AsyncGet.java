@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An asynchronous read of a key that is shared by all callers who ask for the key while
+ * the read is in progress.
+ *
+ * @author Inderjeet Singh
+ */
+final class AsyncGet<T> extends FutureTask<T> {
+
+    private final String name;
+    private final ConcurrentMap<String, AsyncGet<?>> inFlight;
+    private List<Prefs.Callback<? super T>> callbacks; // guarded by this
+
+    AsyncGet(String name, Callable<T> read, ConcurrentMap<String, AsyncGet<?>> inFlight) {
+        super(read);
+        this.name = name;
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Registers the callback to be invoked once the read completes. If the read has already
+     * completed, the callback is invoked on the calling thread.
+     */
+    void addCallback(Prefs.Callback<? super T> callback) {
+        synchronized (this) {
+            if (!isDone()) {
+                if (callbacks == null) callbacks = new ArrayList<>(2);
+                callbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    @Override
+    protected void done() {
+        inFlight.remove(name, this);
+        List<Prefs.Callback<? super T>> toNotify;
+        synchronized (this) {
+            toNotify = callbacks;
+            callbacks = null;
+        }
+        if (toNotify != null) {
+            for (Prefs.Callback<? super T> callback : toNotify) deliver(callback);
+        }
+    }
+
+    private void deliver(Prefs.Callback<? super T> callback) {
+        T value;
+        try {
+            value = get();
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (InterruptedException e) { // can't happen since the task is done
+            Thread.currentThread().interrupt();
+            callback.onFailure(e);
+            return;
+        } catch (RuntimeException e) { // cancelled
+            callback.onFailure(e);
+            return;
+        }
+        callback.onSuccess(value);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Arrays;
+
+/**
+ * Standard Base64 encoding with padding, as in RFC 4648. {@code java.util.Base64} needs
+ * Java 8, and {@code android.util.Base64} is not available on a plain JVM.
+ *
+ * @author Inderjeet Singh
+ */
+final class Base64 {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; ++i) VALUES[ALPHABET[i]] = i;
+    }
+
+    static String encode(byte[] bytes) {
+        char[] out = new char[(bytes.length + 2) / 3 * 4];
+        int o = 0;
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | bytes[i + 2] & 0xff;
+            out[o++] = ALPHABET[n >>> 18];
+            out[o++] = ALPHABET[n >>> 12 & 0x3f];
+            out[o++] = ALPHABET[n >>> 6 & 0x3f];
+            out[o++] = ALPHABET[n & 0x3f];
+        }
+        int remaining = bytes.length - i;
+        if (remaining > 0) {
+            int n = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[n >>> 18];
+            out[o++] = ALPHABET[n >>> 12 & 0x3f];
+            out[o++] = remaining == 2 ? ALPHABET[n >>> 6 & 0x3f] : '=';
+            out[o] = '=';
+        }
+        return new String(out);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is not valid Base64
+     */
+    static byte[] decode(String str) {
+        int length = str.length();
+        if (length % 4 != 0) throw new IllegalArgumentException("Invalid Base64 length: " + length);
+        int padding = length == 0 ? 0 : str.charAt(length - 1) != '=' ? 0 : str.charAt(length - 2) != '=' ? 1 : 2;
+        byte[] out = new byte[length / 4 * 3 - padding];
+        int o = 0;
+        for (int i = 0; i < length; i += 4) {
+            int n = value(str, i) << 18 | value(str, i + 1) << 12;
+            boolean last = i + 4 == length;
+            if (!last || padding < 2) n |= value(str, i + 2) << 6;
+            if (!last || padding < 1) n |= value(str, i + 3);
+            out[o++] = (byte) (n >>> 16);
+            if (o < out.length) out[o++] = (byte) (n >>> 8);
+            if (o < out.length) out[o++] = (byte) n;
+        }
+        return out;
+    }
+
+    private static int value(String str, int index) {
+        char c = str.charAt(index);
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) throw new IllegalArgumentException("Invalid Base64 character at " + index);
+        return value;
+    }
+
+    private Base64() {} // Not instantiable
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * A compact {@link ValueCodec} for the types that make up most prefs values: primitives and
+ * their wrappers, Strings, enums, {@code int[]} and {@code long[]}, Lists and Sets of these,
+ * and Maps from String to these. Integers are stored as variable-length numbers, so small
+ * values take a single byte, and there are no field names, quotes or separators as in JSON.
+ * Enums are stored by name, so constants can be reordered, but not renamed.
+ * Null elements and map values are not supported.
+ *
+ * <pre>
+ * TypedKey&lt;List&lt;Long&gt;&gt; RECENT_IDS = new TypedKey&lt;&gt;("recentIds", new TypeToken&lt;List&lt;Long&gt;&gt;() {})
+ *     .withValueCodec(BinaryCodec.of(new TypeToken&lt;List&lt;Long&gt;&gt;() {}));
+ * </pre>
+ *
+ * @param <T> the type of values encoded
+ *
+ * @author Inderjeet Singh
+ */
+public final class BinaryCodec<T> implements ValueCodec<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte VERSION = 1;
+
+    private final Shape shape;
+
+    private BinaryCodec(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public static <T> BinaryCodec<T> of(Class<T> type) {
+        return new BinaryCodec<>(shape(type));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public static <T> BinaryCodec<T> of(TypeToken<T> type) {
+        return new BinaryCodec<>(shape(type.getType()));
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        Output out = new Output();
+        out.writeByte(VERSION);
+        shape.write(out, value);
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes were not encoded by a codec for this type
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public T decode(byte[] bytes) {
+        Input in = new Input(bytes);
+        try {
+            if (in.readByte() != VERSION) throw new IllegalArgumentException("Unknown format version " + bytes[0]);
+            T value = (T) shape.read(in);
+            if (in.position != bytes.length) throw new IllegalArgumentException("Not fully consumed");
+            return value;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated value", e);
+        }
+    }
+
+    private static Shape shape(Type type) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz == int[].class) return INT_ARRAY;
+            if (clazz == long[].class) return LONG_ARRAY;
+            return scalar(clazz);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Type raw = parameterized.getRawType();
+            Type[] args = parameterized.getActualTypeArguments();
+            if (raw == List.class || raw == Collection.class || raw == ArrayList.class) {
+                return new CollectionShape(scalar(args[0]), false);
+            }
+            if (raw == Set.class || raw == HashSet.class || raw == LinkedHashSet.class) {
+                return new CollectionShape(scalar(args[0]), true);
+            }
+            if ((raw == Map.class || raw == HashMap.class || raw == LinkedHashMap.class) && args[0] == String.class) {
+                return new MapShape(scalar(args[1]));
+            }
+        }
+        throw new IllegalArgumentException("Unsupported type: " + type);
+    }
+
+    private static Shape scalar(Type type) {
+        if (type == Integer.class || type == int.class) return INT;
+        if (type == Long.class || type == long.class) return LONG;
+        if (type == Short.class || type == short.class) return SHORT;
+        if (type == Byte.class || type == byte.class) return BYTE;
+        if (type == Float.class || type == float.class) return FLOAT;
+        if (type == Double.class || type == double.class) return DOUBLE;
+        if (type == Boolean.class || type == boolean.class) return BOOLEAN;
+        if (type == String.class) return STRING;
+        if (type instanceof Class && ((Class<?>) type).isEnum()) return new EnumShape((Class<?>) type);
+        throw new IllegalArgumentException("Unsupported type: " + type);
+    }
+
+    /** Writes and reads values of one type */
+    private static abstract class Shape {
+        abstract void write(Output out, Object value);
+        abstract Object read(Input in);
+    }
+
+    private static final Shape INT = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeVarLong(zigZag((Integer) value));
+        }
+        @Override Object read(Input in) {
+            return (int) unZigZag(in.readVarLong());
+        }
+    };
+
+    private static final Shape LONG = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeVarLong(zigZag((Long) value));
+        }
+        @Override Object read(Input in) {
+            return unZigZag(in.readVarLong());
+        }
+    };
+
+    private static final Shape SHORT = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeVarLong(zigZag((Short) value));
+        }
+        @Override Object read(Input in) {
+            return (short) unZigZag(in.readVarLong());
+        }
+    };
+
+    private static final Shape BYTE = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeByte((Byte) value);
+        }
+        @Override Object read(Input in) {
+            return in.readByte();
+        }
+    };
+
+    private static final Shape FLOAT = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeFixed(Float.floatToIntBits((Float) value), 4);
+        }
+        @Override Object read(Input in) {
+            return Float.intBitsToFloat((int) in.readFixed(4));
+        }
+    };
+
+    private static final Shape DOUBLE = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeFixed(Double.doubleToLongBits((Double) value), 8);
+        }
+        @Override Object read(Input in) {
+            return Double.longBitsToDouble(in.readFixed(8));
+        }
+    };
+
+    private static final Shape BOOLEAN = new Shape() {
+        @Override void write(Output out, Object value) {
+            out.writeByte((Boolean) value ? 1 : 0);
+        }
+        @Override Object read(Input in) {
+            return in.readByte() != 0;
+        }
+    };
+
+    private static final Shape STRING = new Shape() {
+        @Override void write(Output out, Object value) {
+            byte[] bytes = ((String) value).getBytes(UTF_8);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        }
+        @Override Object read(Input in) {
+            int length = in.readLength();
+            String str = new String(in.bytes, in.position, length, UTF_8);
+            in.position += length;
+            return str;
+        }
+    };
+
+    private static final Shape INT_ARRAY = new Shape() {
+        @Override void write(Output out, Object value) {
+            int[] array = (int[]) value;
+            out.writeVarLong(array.length);
+            for (int i : array) out.writeVarLong(zigZag(i));
+        }
+        @Override Object read(Input in) {
+            int[] array = new int[in.readLength()];
+            for (int i = 0; i < array.length; ++i) array[i] = (int) unZigZag(in.readVarLong());
+            return array;
+        }
+    };
+
+    private static final Shape LONG_ARRAY = new Shape() {
+        @Override void write(Output out, Object value) {
+            long[] array = (long[]) value;
+            out.writeVarLong(array.length);
+            for (long l : array) out.writeVarLong(zigZag(l));
+        }
+        @Override Object read(Input in) {
+            long[] array = new long[in.readLength()];
+            for (int i = 0; i < array.length; ++i) array[i] = unZigZag(in.readVarLong());
+            return array;
+        }
+    };
+
+    private static final class EnumShape extends Shape {
+        private final Class<?> enumClass;
+        EnumShape(Class<?> enumClass) {
+            this.enumClass = enumClass;
+        }
+        @Override void write(Output out, Object value) {
+            STRING.write(out, ((Enum<?>) value).name());
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override Object read(Input in) {
+            return Enum.valueOf((Class) enumClass, (String) STRING.read(in));
+        }
+    }
+
+    private static final class CollectionShape extends Shape {
+        private final Shape element;
+        private final boolean set;
+        CollectionShape(Shape element, boolean set) {
+            this.element = element;
+            this.set = set;
+        }
+        @Override void write(Output out, Object value) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeVarLong(collection.size());
+            for (Object e : collection) {
+                if (e == null) throw new IllegalArgumentException("Null elements are not supported");
+                element.write(out, e);
+            }
+        }
+        @Override Object read(Input in) {
+            int size = in.readLength();
+            Collection<Object> collection = set ? new LinkedHashSet<>(2 * size) : new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) collection.add(element.read(in));
+            return collection;
+        }
+    }
+
+    private static final class MapShape extends Shape {
+        private final Shape value;
+        MapShape(Shape value) {
+            this.value = value;
+        }
+        @Override void write(Output out, Object map) {
+            Map<?, ?> entries = (Map<?, ?>) map;
+            out.writeVarLong(entries.size());
+            for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    throw new IllegalArgumentException("Null keys and values are not supported");
+                }
+                STRING.write(out, entry.getKey());
+                value.write(out, entry.getValue());
+            }
+        }
+        @Override Object read(Input in) {
+            int size = in.readLength();
+            Map<String, Object> map = new LinkedHashMap<>(2 * size);
+            for (int i = 0; i < size; ++i) map.put((String) STRING.read(in), value.read(in));
+            return map;
+        }
+    }
+
+    /** Maps signed numbers to unsigned ones so that small negative numbers are short too */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        private byte[] bytes = new byte[32];
+        private int size;
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        /** 7 bits per byte, with the high bit set on all but the last byte */
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeFixed(long value, int length) {
+            ensure(length);
+            for (int shift = 8 * (length - 1); shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + length));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static final class Input {
+        final byte[] bytes;
+        int position;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            return bytes[position++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed number");
+        }
+
+        /** A collection or string length, checked against the remaining bytes */
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > bytes.length - position) throw new IllegalArgumentException("Invalid length " + length);
+            return (int) length;
+        }
+
+        long readFixed(int length) {
+            long value = 0;
+            for (int i = 0; i < length; ++i) {
+                value = (value << 8) | (bytes[position++] & 0xff);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+/**
+ * A {@link TypedKey} for {@code boolean} values. Use with {@link Prefs#getBoolean(BooleanKey)} and
+ * {@link Prefs#putBoolean(BooleanKey, boolean)} to read and write the value without boxing it.
+ *
+ * @author Inderjeet Singh
+ */
+public class BooleanKey extends TypedKey<Boolean> {
+
+    public BooleanKey(String name, String... tags) {
+        super(name, Boolean.class, true, tags);
+    }
+
+    /**
+     * @param name Ensure that this name is unique across the preference file
+     * @param prefsFileName the name of the prefs file where this key will be stored
+     * @param cacheableInMemory Whether the boxed value can be stored in the in-memory cache
+     *   when accessed through {@link Prefs#get(TypedKey)}. The primitive accessors never use the cache.
+     * @param tags any additional tags to associate with this key
+     */
+    public BooleanKey(String name, String prefsFileName, boolean cacheableInMemory, String... tags) {
+        super(name, Boolean.class, prefsFileName, cacheableInMemory, tags);
+    }
+}
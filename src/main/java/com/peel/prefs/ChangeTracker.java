@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.peel.prefs.PrefsStore.Editor;
+
+/**
+ * Tells {@link Prefs} about changes to its prefs file that were made by others, for example
+ * by code that uses {@code SharedPreferences} directly. The {@link PrefsStore} also reports
+ * the changes made by {@link Prefs} itself, so every editor used by {@link Prefs} records
+ * what it writes, and a reported change is ignored if the file holds what was last written.
+ *
+ * @author Inderjeet Singh
+ */
+final class ChangeTracker implements PrefsStore.ChangeListener {
+
+    private static final Object REMOVED = new Object();
+
+    private final Prefs prefs;
+    private final ConcurrentMap<String, Object> ownWrites = new ConcurrentHashMap<>();
+
+    ChangeTracker(Prefs prefs) {
+        this.prefs = prefs;
+    }
+
+    Editor wrap(Editor editor) {
+        return new TrackingEditor(editor);
+    }
+
+    @Override
+    public void onChanged(PrefsStore store, String name) {
+        if (name != null) { // null when the file was cleared, on Android 11 and later
+            Object own = ownWrites.get(name);
+            if (own != null) {
+                if (own.equals(stored(store, name, own))) return;
+                ownWrites.remove(name, own);
+            }
+        }
+        prefs.externalChange(name);
+    }
+
+    /** @return the stored value, if it is of the same type as the value that was last written */
+    private static Object stored(PrefsStore prefs, String name, Object own) {
+        if (!prefs.contains(name)) return REMOVED;
+        try {
+            if (own instanceof String) return prefs.getString(name, null);
+            if (own instanceof Integer) return prefs.getInt(name, 0);
+            if (own instanceof Long) return prefs.getLong(name, 0L);
+            if (own instanceof Float) return prefs.getFloat(name, 0f);
+            if (own instanceof Boolean) return prefs.getBoolean(name, false);
+            if (own instanceof Set) return prefs.getStringSet(name, null);
+            if (own instanceof ByteBuffer) return wrap(prefs.getBytes(name));
+        } catch (ClassCastException e) { // written by someone else with a different type
+        }
+        return null;
+    }
+
+    /** Byte arrays are recorded as buffers since those compare by content */
+    private static ByteBuffer wrap(byte[] bytes) {
+        return bytes == null ? null : ByteBuffer.wrap(bytes.clone());
+    }
+
+    private final class TrackingEditor implements Editor {
+        private final Editor editor;
+
+        TrackingEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        private void written(String name, Object value) {
+            ownWrites.put(name, value == null ? REMOVED : value); // a null value removes the key
+        }
+
+        @Override public Editor putString(String key, String value) {
+            written(key, value);
+            editor.putString(key, value);
+            return this;
+        }
+        @Override public Editor putStringSet(String key, Set<String> values) {
+            written(key, values == null ? null : new HashSet<>(values));
+            editor.putStringSet(key, values);
+            return this;
+        }
+        @Override public Editor putInt(String key, int value) {
+            written(key, value);
+            editor.putInt(key, value);
+            return this;
+        }
+        @Override public Editor putLong(String key, long value) {
+            written(key, value);
+            editor.putLong(key, value);
+            return this;
+        }
+        @Override public Editor putFloat(String key, float value) {
+            written(key, value);
+            editor.putFloat(key, value);
+            return this;
+        }
+        @Override public Editor putBoolean(String key, boolean value) {
+            written(key, value);
+            editor.putBoolean(key, value);
+            return this;
+        }
+        @Override public Editor putBytes(String key, byte[] value) {
+            written(key, wrap(value));
+            editor.putBytes(key, value);
+            return this;
+        }
+        @Override public Editor remove(String key) {
+            written(key, null);
+            editor.remove(key);
+            return this;
+        }
+        @Override public Editor clear() {
+            ownWrites.clear();
+            editor.clear();
+            return this;
+        }
+        @Override public boolean commit() {
+            return editor.commit();
+        }
+        @Override public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.EOFException;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import com.peel.prefs.PrefsStore.Editor;
+
+/**
+ * Reads and writes values of a single type. A codec is resolved once per type and cached
+ * on each {@link TypedKey}, so that a get or put dispatches directly to the code for its
+ * type. Types that are not stored natively by a {@link PrefsStore} are stored as JSON
+ * using a cached Gson {@link TypeAdapter}.
+ *
+ * @param <T> the type of values handled by this codec
+ *
+ * @author Inderjeet Singh
+ */
+abstract class Codec<T> {
+
+    private static final Type STRING_SET_TYPE = new TypeToken<Set<String>>() {}.getType();
+
+    final Gson gson;
+    private final TypeAdapter<T> adapter;
+    private volatile RuntimeAdapter runtimeAdapter;
+
+    @SuppressWarnings("unchecked")
+    Codec(Gson gson, Type type) {
+        this.gson = gson;
+        this.adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
+    }
+
+    /** For codecs that do not use JSON */
+    Codec(Gson gson) {
+        this.gson = gson;
+        this.adapter = null;
+    }
+
+    /**
+     * @return the stored value, or null if there is none
+     */
+    abstract T read(PrefsStore prefs, String name);
+
+    /**
+     * @return the estimated number of bytes retained by the value in memory, derived from
+     *   the form in which it was stored
+     */
+    abstract int write(Editor editor, String name, T value);
+
+    /**
+     * @return the estimated number of bytes retained in memory by a value that was just
+     *   {@link #read(PrefsStore, String) read} from the prefs
+     */
+    abstract int weigh(PrefsStore prefs, String name, T value);
+
+    /**
+     * @return true if the stored value equals this non-null value
+     */
+    boolean isStored(PrefsStore prefs, String name, T value) {
+        return value.equals(read(prefs, name));
+    }
+
+    /**
+     * @return the value returned for a key that is not present
+     */
+    T defaultValue() {
+        return null;
+    }
+
+    /** Same as {@link Gson#fromJson(String, Type)} but without looking up the type adapter */
+    final T fromJson(String json) {
+        return json == null ? null : fromJson(new StringReader(json));
+    }
+
+    /** Same as {@link Gson#fromJson(Reader, Type)} but without looking up the type adapter */
+    final T fromJson(Reader json) {
+        JsonReader reader = new JsonReader(json);
+        reader.setLenient(true);
+        boolean isEmpty = true;
+        try {
+            reader.peek();
+            isEmpty = false;
+            T value = adapter.read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+            return value;
+        } catch (EOFException e) {
+            if (isEmpty) return null;
+            throw new JsonSyntaxException(e);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Same as {@link Gson#toJson(Object)}. Like Gson, the runtime type of the value is
+     * used. The adapter for the most recently seen runtime class is cached.
+     */
+    final String toJson(T value) {
+        if (value == null) return gson.toJson(null);
+        try {
+            StringWriter out = new StringWriter();
+            toJson(value, out);
+            return out.toString();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /** Writes the JSON of the non-null value to the writer, see {@link #toJson(Object)} */
+    @SuppressWarnings("unchecked")
+    final void toJson(T value, Writer out) throws IOException {
+        Class<?> clazz = value.getClass();
+        RuntimeAdapter runtime = runtimeAdapter;
+        if (runtime == null || runtime.clazz != clazz) {
+            runtime = new RuntimeAdapter(clazz, gson.getAdapter(clazz));
+            runtimeAdapter = runtime;
+        }
+        JsonWriter writer = gson.newJsonWriter(out);
+        writer.setLenient(true);
+        writer.setHtmlSafe(gson.htmlSafe());
+        ((TypeAdapter<Object>) runtime.adapter).write(writer, value);
+        writer.flush();
+    }
+
+    /** Size of a String of the specified length, including its char array */
+    static int weighString(int length) {
+        return 40 + 2 * length;
+    }
+
+    private static final class RuntimeAdapter {
+        final Class<?> clazz;
+        final TypeAdapter<?> adapter;
+        RuntimeAdapter(Class<?> clazz, TypeAdapter<?> adapter) {
+            this.clazz = clazz;
+            this.adapter = adapter;
+        }
+    }
+
+    static Codec<?> create(Gson gson, Type type) {
+        if (type == Boolean.class || type == boolean.class) {
+            return new BooleanCodec(gson, type);
+        } else if (type == String.class) {
+            return new StringCodec(gson, type);
+        } else if (type == Integer.class || type == int.class) {
+            return new IntegerCodec(gson, type);
+        } else if (type == Long.class || type == long.class) {
+            return new LongCodec(gson, type);
+        } else if (type == Float.class || type == float.class) {
+            return new FloatCodec(gson, type);
+        } else if (type == Double.class || type == double.class) {
+            return new DoubleCodec(gson, type);
+        } else if (type == Short.class || type == short.class) {
+            return new ShortCodec(gson, type);
+        } else if (type == Byte.class || type == byte.class) {
+            return new ByteCodec(gson, type);
+        } else if (type.equals(STRING_SET_TYPE)) {
+            return new StringSetCodec(gson, type);
+        } else {
+            return new JsonCodec<>(gson, type);
+        }
+    }
+
+    static <T> Codec<T> create(Gson gson, ValueCodec<T> valueCodec) {
+        return new BinaryValueCodec<>(gson, valueCodec);
+    }
+
+    /**
+     * A codec for a type that {@link PrefsStore} stores natively. If the value was
+     * stored as a String instead, it is read back as JSON.
+     */
+    private static abstract class NativeCodec<T> extends Codec<T> {
+        NativeCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+
+        abstract T readNative(PrefsStore prefs, String name);
+
+        abstract int weigh(T value);
+
+        @Override
+        final int weigh(PrefsStore prefs, String name, T value) {
+            return weigh(value);
+        }
+
+        @Override
+        final T read(PrefsStore prefs, String name) {
+            if (!prefs.contains(name)) return null;
+            try {
+                return readNative(prefs, name);
+            } catch (ClassCastException e) {
+                // This can happen if the value was previously stored as String
+                return fromJson(prefs.getString(name, null));
+            }
+        }
+    }
+
+    private static final class BooleanCodec extends NativeCodec<Boolean> {
+        BooleanCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Boolean readNative(PrefsStore prefs, String name) {
+            return prefs.getBoolean(name, false);
+        }
+        @Override int write(Editor editor, String name, Boolean value) {
+            editor.putBoolean(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Boolean value) {
+            return 16;
+        }
+        @Override Boolean defaultValue() {
+            return Boolean.FALSE; // default value for Boolean to avoid NPE for flags
+        }
+    }
+
+    private static final class StringCodec extends NativeCodec<String> {
+        StringCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override String readNative(PrefsStore prefs, String name) {
+            return Prefs.stripJsonQuotesIfPresent(prefs.getString(name, null));
+        }
+        @Override int write(Editor editor, String name, String value) {
+            editor.putString(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(String value) {
+            return value == null ? 0 : weighString(value.length());
+        }
+    }
+
+    private static final class IntegerCodec extends NativeCodec<Integer> {
+        IntegerCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Integer readNative(PrefsStore prefs, String name) {
+            return prefs.getInt(name, 0);
+        }
+        @Override int write(Editor editor, String name, Integer value) {
+            editor.putInt(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Integer value) {
+            return 16;
+        }
+    }
+
+    private static final class LongCodec extends NativeCodec<Long> {
+        LongCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Long readNative(PrefsStore prefs, String name) {
+            return prefs.getLong(name, 0L);
+        }
+        @Override int write(Editor editor, String name, Long value) {
+            editor.putLong(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Long value) {
+            return 24;
+        }
+    }
+
+    private static final class FloatCodec extends NativeCodec<Float> {
+        FloatCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Float readNative(PrefsStore prefs, String name) {
+            return prefs.getFloat(name, 0f);
+        }
+        @Override int write(Editor editor, String name, Float value) {
+            editor.putFloat(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Float value) {
+            return 16;
+        }
+    }
+
+    /** Doubles are stored as floats */
+    private static final class DoubleCodec extends NativeCodec<Double> {
+        DoubleCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Double readNative(PrefsStore prefs, String name) {
+            return (double) prefs.getFloat(name, 0f);
+        }
+        @Override int write(Editor editor, String name, Double value) {
+            editor.putFloat(name, value.floatValue());
+            return weigh(value);
+        }
+        @Override boolean isStored(PrefsStore prefs, String name, Double value) {
+            Double stored = read(prefs, name);
+            return stored != null && Float.compare(stored.floatValue(), value.floatValue()) == 0; // stored as a float
+        }
+        @Override int weigh(Double value) {
+            return 24;
+        }
+    }
+
+    /** Shorts are stored as ints */
+    private static final class ShortCodec extends NativeCodec<Short> {
+        ShortCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Short readNative(PrefsStore prefs, String name) {
+            return (short) prefs.getInt(name, 0);
+        }
+        @Override int write(Editor editor, String name, Short value) {
+            editor.putInt(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Short value) {
+            return 16;
+        }
+    }
+
+    /** Bytes are stored as ints */
+    private static final class ByteCodec extends NativeCodec<Byte> {
+        ByteCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Byte readNative(PrefsStore prefs, String name) {
+            return (byte) prefs.getInt(name, 0);
+        }
+        @Override int write(Editor editor, String name, Byte value) {
+            editor.putInt(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Byte value) {
+            return 16;
+        }
+    }
+
+    private static final class StringSetCodec extends NativeCodec<Set<String>> {
+        StringSetCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override Set<String> readNative(PrefsStore prefs, String name) {
+            return prefs.getStringSet(name, null);
+        }
+        @Override int write(Editor editor, String name, Set<String> value) {
+            editor.putStringSet(name, value);
+            return weigh(value);
+        }
+        @Override int weigh(Set<String> value) {
+            if (value == null) return 0;
+            int weight = 64;
+            for (String str : value) {
+                weight += 32 + weighString(str.length()); // 32 for the set entry
+            }
+            return weight;
+        }
+    }
+
+    /** Stores values as bytes encoded by a {@link ValueCodec} */
+    private static final class BinaryValueCodec<T> extends Codec<T> {
+        private final ValueCodec<T> valueCodec;
+        BinaryValueCodec(Gson gson, ValueCodec<T> valueCodec) {
+            super(gson);
+            this.valueCodec = valueCodec;
+        }
+        /** A value stored before the key had a value codec is treated as absent */
+        @Override T read(PrefsStore prefs, String name) {
+            try {
+                byte[] bytes = prefs.getBytes(name);
+                return bytes == null ? null : valueCodec.decode(bytes);
+            } catch (ClassCastException e) { // stored natively
+                return null;
+            } catch (IllegalArgumentException e) { // stored as JSON, which is not valid Base64 or not valid for the codec
+                return null;
+            }
+        }
+        @Override int write(Editor editor, String name, T value) {
+            if (value == null) {
+                editor.remove(name);
+                return 0;
+            }
+            byte[] bytes = valueCodec.encode(value);
+            editor.putBytes(name, bytes);
+            return weighBytes(bytes.length);
+        }
+        @Override boolean isStored(PrefsStore prefs, String name, T value) {
+            try {
+                return Arrays.equals(valueCodec.encode(value), prefs.getBytes(name)); // avoids decoding the stored value
+            } catch (ClassCastException e) { // stored natively
+                return false;
+            } catch (IllegalArgumentException e) { // stored as JSON
+                return false;
+            }
+        }
+        @Override int weigh(PrefsStore prefs, String name, T value) {
+            try {
+                byte[] bytes = prefs.getBytes(name);
+                return bytes == null ? 0 : weighBytes(bytes.length);
+            } catch (ClassCastException e) {
+                return 0;
+            } catch (IllegalArgumentException e) {
+                return 0;
+            }
+        }
+        /** The decoded object graph is typically of the same order as its encoded form */
+        private static int weighBytes(int length) {
+            return 16 + 2 * length;
+        }
+    }
+
+    /**
+     * Stores values as JSON strings. The JSON is streamed from and to stores that implement
+     * {@link PrefsStore.Streaming}, so that large values are not held in memory as a String
+     * in addition to the object graph.
+     */
+    private static final class JsonCodec<T> extends Codec<T> {
+        JsonCodec(Gson gson, Type type) {
+            super(gson, type);
+        }
+        @Override T read(PrefsStore prefs, String name) {
+            if (!(prefs instanceof PrefsStore.Streaming)) return fromJson(prefs.getString(name, null));
+            Reader json = ((PrefsStore.Streaming) prefs).getStringReader(name);
+            if (json == null) return null;
+            try {
+                return fromJson(json);
+            } finally {
+                try {
+                    json.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        @Override int write(Editor editor, String name, final T value) {
+            if (value == null || !(editor instanceof PrefsStore.StreamingEditor)) {
+                String json = toJson(value);
+                editor.putString(name, json);
+                return weighString(json.length()); // the object graph is typically of the same order as its JSON
+            }
+            final int[] length = new int[1];
+            try {
+                ((PrefsStore.StreamingEditor) editor).putString(name, new PrefsStore.StringSource() {
+                    @Override public void writeTo(Writer out) throws IOException {
+                        CountingWriter counting = new CountingWriter(out);
+                        toJson(value, counting);
+                        length[0] = counting.count;
+                    }
+                });
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+            return weighString(length[0]);
+        }
+        @Override boolean isStored(PrefsStore prefs, String name, T value) {
+            try {
+                return toJson(value).equals(prefs.getString(name, null)); // avoids decoding the stored value
+            } catch (ClassCastException e) { // stored natively
+                return false;
+            }
+        }
+        @Override int weigh(PrefsStore prefs, String name, T value) {
+            if (prefs instanceof PrefsStore.Streaming) {
+                int size = ((PrefsStore.Streaming) prefs).getStringSize(name);
+                return size < 0 ? 0 : weighString(size); // as many chars as bytes for mostly ASCII JSON
+            }
+            String json = prefs.getString(name, null);
+            return json == null ? 0 : weighString(json.length());
+        }
+    }
+
+    /** Counts the chars written */
+    private static final class CountingWriter extends FilterWriter {
+        int count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override public void write(int c) throws IOException {
+            out.write(c);
+            ++count;
+        }
+
+        @Override public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
+}
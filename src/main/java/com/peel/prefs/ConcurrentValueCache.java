@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default {@link ValueCache}. Reads are lock-free: values are held in a
+ * {@link ConcurrentHashMap} and a hit only sets a reference bit on the entry. Once the
+ * cache grows past its capacity, entries are evicted with the CLOCK algorithm: a
+ * hand sweeps over the entries, clearing reference bits and evicting the first entry that
+ * has not been read since the hand last passed it. Only eviction takes a lock.
+ *
+ * <p>The capacity is either a number of entries, or, for a cache created with
+ * {@link #withByteBudget(long)}, the total estimated size of the values in bytes.
+ *
+ * @author Inderjeet Singh
+ */
+public class ConcurrentValueCache implements ValueCache {
+
+    private static final class Entry {
+        final Object value;
+        final int weight;
+        volatile boolean referenced; // set by reads only, so entries that are read outlive the rest
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> map;
+    private final long capacity;
+    private final boolean weighted;
+    private final AtomicLong weight = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private Iterator<Map.Entry<String, Entry>> hand; // guarded by evictionLock
+
+    /**
+     * @param maxSize the maximum number of values to keep in memory
+     */
+    public ConcurrentValueCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Creates a cache bounded by the estimated memory retained by its values instead of
+     * their number. Values are weighed by the {@link Weigher} of their key if one is set,
+     * otherwise by the size of their stored form, for example their JSON. A value that
+     * weighs more than the whole budget is not cached.
+     *
+     * @param maxBytes the maximum total weight of the cached values
+     */
+    public static ConcurrentValueCache withByteBudget(long maxBytes) {
+        return new ConcurrentValueCache(maxBytes, true);
+    }
+
+    private ConcurrentValueCache(long capacity, boolean weighted) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+        this.capacity = capacity;
+        this.weighted = weighted;
+        this.map = new ConcurrentHashMap<>(weighted ? 64 : (int) Math.min(capacity, 64));
+    }
+
+    @Override
+    public Object get(String name) {
+        Entry entry = map.get(name);
+        if (entry == null) return null;
+        if (!entry.referenced) entry.referenced = true; // avoid a write on every hit
+        return entry.value;
+    }
+
+    @Override
+    public void put(String name, Object value, int weight) {
+        Prefs.requireNonNull(value);
+        if (!weighted) {
+            weight = 1;
+        } else if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for " + name);
+        } else if (weight > capacity) {
+            remove(name);
+            return;
+        }
+        Entry previous = map.put(name, new Entry(value, weight));
+        long total = this.weight.addAndGet(previous == null ? weight : weight - previous.weight);
+        if (total > capacity) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            while (weight.get() > capacity) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = map.entrySet().iterator();
+                    if (!hand.hasNext()) return;
+                }
+                Map.Entry<String, Entry> candidate = hand.next();
+                Entry entry = candidate.getValue();
+                if (entry.referenced) {
+                    entry.referenced = false; // second chance
+                } else if (map.remove(candidate.getKey(), entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Object remove(String name) {
+        Entry entry = map.remove(name);
+        if (entry == null) return null;
+        weight.addAndGet(-entry.weight);
+        return entry.value;
+    }
+
+    @Override
+    public void clear() {
+        for (Map.Entry<String, Entry> entry : map.entrySet()) {
+            if (map.remove(entry.getKey(), entry.getValue())) {
+                weight.addAndGet(-entry.getValue().weight);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the maximum number of entries, or the maximum number of bytes for a cache
+     *   created with {@link #withByteBudget(long)}
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of entries, or the estimated number of bytes for a cache created
+     *   with {@link #withByteBudget(long)}
+     */
+    public long weight() {
+        return weight.get();
+    }
+}
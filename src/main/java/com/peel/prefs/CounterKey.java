@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+/**
+ * A key for a {@code long} counter that is kept in memory and persisted periodically, for
+ * counters that are incremented often, such as impressions per screen. Use with
+ * {@link Prefs#increment(CounterKey)}, {@link Prefs#add(CounterKey, long)} and
+ * {@link Prefs#getCount(CounterKey)}. Increments are written to the prefs file by
+ * {@link Prefs#flush()} and by {@link Prefs#enableCounterPersistence}; increments that were
+ * not written are lost if the process dies.
+ *
+ * <p>{@link Prefs#get(TypedKey)} returns the last persisted value. A put or a remove of
+ * this key discards the in-memory counter, so the next increment starts from the new value.
+ *
+ * @author Inderjeet Singh
+ */
+public class CounterKey extends TypedKey<Long> {
+
+    public CounterKey(String name, String... tags) {
+        super(name, Long.class, false, tags);
+    }
+
+    /**
+     * @param name Ensure that this name is unique across the preference file
+     * @param prefsFileName the name of the prefs file where this key will be stored
+     * @param tags any additional tags to associate with this key. Not varargs, since that
+     *   would make {@code new CounterKey(name, tag)} ambiguous.
+     */
+    public CounterKey(String name, String prefsFileName, String[] tags) {
+        super(name, Long.class, prefsFileName, false, tags);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The set of key names present in a prefs file. It is loaded once from the file and then
+ * kept up to date by {@link Prefs} on every put, remove and clear. This lets {@link Prefs}
+ * enumerate keys without copying all values out of the file, and answer that a key is
+ * absent with a single in-memory lookup, something that the value cache can not do since
+ * it does not store nulls.
+ *
+ * @author Inderjeet Singh
+ */
+final class KeyIndex {
+
+    private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> view = Collections.unmodifiableSet(keys);
+    private volatile boolean loaded;
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized void load(PrefsStore prefs) {
+        if (!loaded) load(prefs.getAll().keySet());
+    }
+
+    /** Loads the index from key names that were just read from the prefs file */
+    synchronized void load(Collection<String> names) {
+        if (loaded) return;
+        keys.addAll(names);
+        loaded = true;
+    }
+
+    Set<String> keys() {
+        return view;
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    boolean contains(String name) {
+        return keys.contains(name);
+    }
+
+    void add(String name) {
+        keys.add(name);
+    }
+
+    void remove(String name) {
+        keys.remove(name);
+    }
+
+    synchronized void clear() {
+        keys.clear();
+        loaded = true;
+    }
+
+    /** Discards the index, so that it is loaded from the file again on next use */
+    synchronized void reset() {
+        loaded = false;
+        keys.clear();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The keys known to a {@link Prefs}, indexed by name and by tag. A key is registered explicitly, or
+ * when it is first put, and stays registered for the life of the {@link Prefs}.
+ *
+ * @author Inderjeet Singh
+ */
+final class KeyRegistry {
+
+    private final ConcurrentMap<String, TypedKey<?>> keysByName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<TypedKey<?>>> keysByTag = new ConcurrentHashMap<>();
+
+    void register(TypedKey<?> key) {
+        String name = key.getName();
+        if (!keysByName.containsKey(name)) keysByName.putIfAbsent(name, key);
+        for (String tag : key.tags()) {
+            Set<TypedKey<?>> keys = keysByTag.get(tag);
+            if (keys == null) {
+                Set<TypedKey<?>> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<TypedKey<?>, Boolean>());
+                keys = keysByTag.putIfAbsent(tag, newKeys);
+                if (keys == null) keys = newKeys;
+            }
+            if (!keys.contains(key)) keys.add(key); // avoid a write for keys that are put often
+        }
+    }
+
+    /**
+     * @return the registered key with this name, or null
+     */
+    TypedKey<?> key(String name) {
+        return keysByName.get(name);
+    }
+
+    /**
+     * @return a live, unmodifiable view of the keys registered with this tag
+     */
+    Set<TypedKey<?>> keys(String tag) {
+        Set<TypedKey<?>> keys = keysByTag.get(tag);
+        return keys == null ? Collections.<TypedKey<?>>emptySet() : Collections.unmodifiableSet(keys);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import com.peel.prefs.Prefs.EventListener;
+
+/**
+ * The {@link EventListener}s of a {@link Prefs}: listeners for all keys, listeners for a
+ * key name and listeners for a tag. The lists are copy-on-write, so listeners can be added
+ * and removed while events are dispatched on other threads. A change is dispatched to the
+ * listeners for all keys, the listeners for the key's name and the listeners for each of
+ * its tags, found with map lookups.
+ *
+ * @author Inderjeet Singh
+ */
+final class ListenerRegistry {
+
+    private final List<EventListener> all = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, List<EventListener>> byName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<EventListener>> byTag = new ConcurrentHashMap<>();
+    private volatile int count; // guarded by this for writes
+    private volatile Executor executor;
+
+    /** @return true if no listeners are registered, in which case events need not be created */
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** @param executor the executor on which events are dispatched, or null to dispatch on the writer's thread */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    synchronized void add(EventListener listener) {
+        all.add(listener);
+        ++count;
+    }
+
+    synchronized void remove(EventListener listener) {
+        if (all.remove(listener)) --count;
+    }
+
+    synchronized void addForName(String name, EventListener listener) {
+        add(byName, name, listener);
+    }
+
+    synchronized void removeForName(String name, EventListener listener) {
+        remove(byName, name, listener);
+    }
+
+    synchronized void addForTag(String tag, EventListener listener) {
+        add(byTag, tag, listener);
+    }
+
+    synchronized void removeForTag(String tag, EventListener listener) {
+        remove(byTag, tag, listener);
+    }
+
+    private void add(ConcurrentMap<String, List<EventListener>> map, String key, EventListener listener) {
+        List<EventListener> list = map.get(key);
+        if (list == null) {
+            list = new CopyOnWriteArrayList<>();
+            map.put(key, list);
+        }
+        list.add(listener);
+        ++count;
+    }
+
+    private void remove(ConcurrentMap<String, List<EventListener>> map, String key, EventListener listener) {
+        List<EventListener> list = map.get(key);
+        if (list != null && list.remove(listener)) {
+            --count;
+            if (list.isEmpty()) map.remove(key);
+        }
+    }
+
+    <T> void onPut(final TypedKey<T> key, final T value) {
+        if (count == 0) return;
+        Executor exec = executor;
+        if (exec == null) {
+            dispatch(key, value, false);
+        } else {
+            exec.execute(new Runnable() {
+                @Override public void run() {
+                    dispatch(key, value, false);
+                }
+            });
+        }
+    }
+
+    <T> void onRemove(final TypedKey<T> key) {
+        if (count == 0) return;
+        Executor exec = executor;
+        if (exec == null) {
+            dispatch(key, null, true);
+        } else {
+            exec.execute(new Runnable() {
+                @Override public void run() {
+                    dispatch(key, null, true);
+                }
+            });
+        }
+    }
+
+    private <T> void dispatch(TypedKey<T> key, T value, boolean remove) {
+        dispatch(all, key, value, remove);
+        if (!byName.isEmpty()) dispatch(byName.get(key.getName()), key, value, remove);
+        if (!byTag.isEmpty()) {
+            for (String tag : key.tags()) dispatch(byTag.get(tag), key, value, remove);
+        }
+    }
+
+    private static <T> void dispatch(List<EventListener> listeners, TypedKey<T> key, T value, boolean remove) {
+        if (listeners == null) return;
+        for (EventListener listener : listeners) {
+            if (remove) {
+                listener.onRemove(key);
+            } else {
+                listener.onPut(key, value);
+            }
+        }
+    }
+}
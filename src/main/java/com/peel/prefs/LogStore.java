@@ -0,0 +1,782 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static com.peel.prefs.StoreValues.BOOLEAN;
+import static com.peel.prefs.StoreValues.BYTES;
+import static com.peel.prefs.StoreValues.FLOAT;
+import static com.peel.prefs.StoreValues.INT;
+import static com.peel.prefs.StoreValues.LONG;
+import static com.peel.prefs.StoreValues.STRING;
+import static com.peel.prefs.StoreValues.STRING_SET;
+import static com.peel.prefs.StoreValues.UTF_8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link PrefsStore} that appends every change to a log file, so that the cost of a write
+ * is proportional to the size of the change rather than to the size of the file, unlike
+ * {@code SharedPreferences}, which rewrites the whole file on every apply. The position of
+ * the latest record of each key is kept in memory, and values are decoded from the file
+ * when they are first read. Once more than half of the file is taken by records that were
+ * overwritten or removed, the live records are copied to a new file in the background.
+ *
+ * <p>Each record is {@code [int length][int crc32][byte type][short name length][name][value]},
+ * with the length and checksum covering everything after them. A record that was not
+ * completely written, for example because the process died, is discarded when the file is
+ * opened, along with anything after it.
+ *
+ * <p>This store is for files that are written by a single process. Changes are visible as
+ * soon as an editor is applied; {@link Editor#commit()} also forces them to disk. If the
+ * changes can't be written, they are dropped and logged, commit returns false, and
+ * {@link PrefsStore.WriteFailureListener}s are told about them.
+ *
+ * <p>String values larger than {@value #STREAMING_THRESHOLD} bytes are streamed from the
+ * file by {@link #getStringReader(String)} rather than decoded into a String, and
+ * {@link StreamingEditor#putString(String, StringSource)} encodes a value into small
+ * chunks that are written to the file as they are, see {@link PrefsStore.Streaming}.
+ *
+ * @author Inderjeet Singh
+ */
+public final class LogStore implements PrefsStore, PrefsStore.Streaming, Closeable {
+
+    private static final Logger logger = Logger.getLogger(LogStore.class.getName());
+    private static final int MAGIC = 0x504c4f47; // "PLOG"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Visible for testing only
+    static final int MIN_COMPACTION_GARBAGE = 64 * 1024;
+    // Visible for testing only
+    static final int STREAMING_THRESHOLD = 16 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    // record types, besides the value types of StoreValues
+    private static final byte CLEAR = 0;
+    private static final byte REMOVE = 1;
+
+    private final File file;
+    private final Executor compactionExecutor;
+    private volatile Map<String, Entry> index = new ConcurrentHashMap<>(); // replaced by compaction
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object compactionLock = new Object();
+    private RandomAccessFile raf; // guarded by this
+    private FileChannel channel; // guarded by this
+    private long end; // guarded by this, the position where the next record is written
+    private long garbage; // guarded by this, bytes taken by records that are no longer live
+    // guarded by this, the number of open readers of each file, which is closed by the last one
+    // if it was replaced by compaction in the meantime
+    private final Map<RandomAccessFile, Integer> readers = new HashMap<>();
+
+    /**
+     * Opens the log file, creating it if it doesn't exist.
+     *
+     * @param compactionExecutor the executor on which the file is compacted
+     */
+    public LogStore(File file, Executor compactionExecutor) throws IOException {
+        Prefs.requireNonNull(file);
+        Prefs.requireNonNull(compactionExecutor);
+        this.file = file;
+        this.compactionExecutor = compactionExecutor;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        load();
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(0, MAGIC);
+            channel.write(header, 0);
+            channel.truncate(HEADER_SIZE);
+            end = HEADER_SIZE;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a log store: " + file);
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size - HEADER_SIZE);
+        end = HEADER_SIZE + replay(records, HEADER_SIZE, index);
+        if (end < size) channel.truncate(end); // discard a partially written record
+    }
+
+    /**
+     * Applies the records in the buffer to the index
+     *
+     * @param base the file position of the start of the buffer
+     * @return the number of bytes of complete and valid records
+     */
+    private long replay(ByteBuffer records, long base, Map<String, Entry> index) {
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[256];
+        int position = records.position();
+        int start = position;
+        while (records.limit() - position >= RECORD_HEADER_SIZE) {
+            int length = records.getInt(position);
+            if (length < 3 || length > records.limit() - position - RECORD_HEADER_SIZE) break;
+            if (scratch.length < length) scratch = new byte[Math.max(length, 2 * scratch.length)];
+            records.position(position + RECORD_HEADER_SIZE);
+            records.get(scratch, 0, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != records.getInt(position + 4)) break;
+            int size = RECORD_HEADER_SIZE + length;
+            byte type = scratch[0];
+            if (type == CLEAR) {
+                index(index, CLEAR, null, 0, size, 0);
+            } else {
+                int nameLength = (scratch[1] & 0xff) << 8 | scratch[2] & 0xff;
+                if (3 + nameLength > length) break;
+                String name = new String(scratch, 3, nameLength, UTF_8);
+                index(index, type, name, base + position - start, size, 3 + nameLength);
+            }
+            position += size;
+        }
+        records.position(position);
+        return position - start;
+    }
+
+    /** Applies a record at the file position to the index */
+    private void index(Map<String, Entry> index, byte type, String name, long offset, int size, int valueOffset) {
+        if (type == CLEAR) {
+            for (Entry entry : index.values()) garbage += entry.size;
+            index.clear();
+            garbage += size;
+            return;
+        }
+        Entry old;
+        if (type == REMOVE) {
+            old = index.remove(name);
+            garbage += size;
+        } else {
+            old = index.put(name, new Entry(offset, size, type, valueOffset));
+        }
+        if (old != null) garbage += old.size;
+    }
+
+    @Override public boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    @Override public synchronized Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>();
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.value == null) entry.value = decode(entry);
+            all.put(e.getKey(), entry.value);
+        }
+        return Collections.unmodifiableMap(all);
+    }
+
+    @Override public String getString(String name, String defValue) {
+        Object value = get(name, STRING);
+        return value == null ? defValue : (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Set<String> getStringSet(String name, Set<String> defValues) {
+        Object value = get(name, STRING_SET);
+        return value == null ? defValues : (Set<String>) value;
+    }
+
+    @Override public int getInt(String name, int defValue) {
+        Object value = get(name, INT);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override public long getLong(String name, long defValue) {
+        Object value = get(name, LONG);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override public float getFloat(String name, float defValue) {
+        Object value = get(name, FLOAT);
+        return value == null ? defValue : (Float) value;
+    }
+
+    @Override public boolean getBoolean(String name, boolean defValue) {
+        Object value = get(name, BOOLEAN);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    @Override public byte[] getBytes(String name) {
+        byte[] value = (byte[]) get(name, BYTES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * @throws ClassCastException if the value was stored with a different type
+     */
+    private Object get(String name, byte type) {
+        Entry entry = index.get(name);
+        if (entry == null) return null;
+        StoreValues.checkType(name, entry.type, type);
+        Object value = entry.value;
+        return value != null ? value : decode(name, type);
+    }
+
+    /** Looks up the entry again, since a compaction may have moved it to a new file */
+    private synchronized Object decode(String name, byte type) {
+        Entry entry = index.get(name);
+        if (entry == null) return null;
+        StoreValues.checkType(name, entry.type, type);
+        if (entry.value == null) entry.value = decode(entry);
+        return entry.value;
+    }
+
+    /** Reads the value of the entry from the file. Called with the lock held. */
+    private Object decode(Entry entry) {
+        int valueLength = entry.valueLength();
+        ByteBuffer buffer = ByteBuffer.allocate(valueLength);
+        try {
+            readFully(channel, buffer, entry.offset + RECORD_HEADER_SIZE + entry.valueOffset);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + file, e);
+        }
+        buffer.flip();
+        return StoreValues.decode(entry.type, buffer, valueLength);
+    }
+
+    @Override public Reader getStringReader(String name) {
+        Entry entry = index.get(name);
+        if (entry == null) return null;
+        StoreValues.checkType(name, entry.type, STRING);
+        Object value = entry.value;
+        if (value != null) return new StringReader((String) value);
+        synchronized (this) {
+            entry = index.get(name); // a compaction may have moved it to a new file
+            if (entry == null) return null;
+            StoreValues.checkType(name, entry.type, STRING);
+            if (entry.value == null && entry.valueLength() <= STREAMING_THRESHOLD) entry.value = decode(entry);
+            if (entry.value != null) return new StringReader((String) entry.value);
+            Integer count = readers.get(raf);
+            readers.put(raf, count == null ? 1 : count + 1);
+            long position = entry.offset + RECORD_HEADER_SIZE + entry.valueOffset;
+            return new InputStreamReader(new RecordInputStream(raf, position, entry.valueLength()), UTF_8);
+        }
+    }
+
+    @Override public int getStringSize(String name) {
+        Entry entry = index.get(name);
+        if (entry == null) return -1;
+        StoreValues.checkType(name, entry.type, STRING);
+        return entry.valueLength();
+    }
+
+    /** Called when a reader of the file is closed */
+    private synchronized void closed(RandomAccessFile file) throws IOException {
+        int count = readers.get(file) - 1;
+        if (count > 0) {
+            readers.put(file, count);
+            return;
+        }
+        readers.remove(file);
+        if (file != raf) file.close(); // replaced by compaction
+    }
+
+    @Override public PrefsStore.Editor edit() {
+        return new Editor();
+    }
+
+    @Override public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Does nothing, since the file is written only by this store
+     */
+    @Override public void reload() {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    // Visible for testing only
+    synchronized long garbage() {
+        return garbage;
+    }
+
+    // Visible for testing only
+    synchronized long fileSize() {
+        return end;
+    }
+
+    /**
+     * Appends the records and adds them to the index
+     *
+     * @return false if the records could not be written
+     */
+    private boolean append(Record records, boolean force) {
+        synchronized (this) {
+            ByteBuffer[] buffers = records.toBuffers();
+            try {
+                channel.position(end);
+                long remaining = records.size();
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                if (force) channel.force(false);
+            } catch (IOException e) { // the partial record is overwritten by the next write
+                logger.log(Level.WARNING, "Failed to write to " + file, e);
+                return false;
+            }
+            for (Record.Added added : records.added) {
+                index(index, added.type, added.name, end + added.offset, added.size, added.valueOffset);
+            }
+            end += records.size();
+            if (garbage < MIN_COMPACTION_GARBAGE || garbage <= end - garbage) return true;
+        }
+        if (compactionScheduled.compareAndSet(false, true)) {
+            try {
+                compactionExecutor.execute(new Runnable() {
+                    @Override public void run() {
+                        try {
+                            compact();
+                        } catch (IOException ignored) { // retried after the next write
+                        } finally {
+                            compactionScheduled.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) { // the records are written; retried after the next write
+                compactionScheduled.set(false);
+                logger.log(Level.WARNING, "Failed to schedule the compaction of " + file, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the file with only the live records. Writes can continue while the live
+     * records are copied; the records written in the meantime are copied at the end.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            File tmp = new File(file.getPath() + ".compact");
+            RandomAccessFile newRaf = new RandomAccessFile(tmp, "rw");
+            boolean swapped = false;
+            try {
+                FileChannel newChannel = newRaf.getChannel();
+                newChannel.truncate(0);
+                newChannel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(0, MAGIC), 0);
+                Map<String, Entry> live;
+                FileChannel oldChannel;
+                long copied;
+                synchronized (this) {
+                    live = new HashMap<>(index);
+                    oldChannel = channel;
+                    copied = end;
+                }
+                Map<String, Entry> newIndex = new ConcurrentHashMap<>();
+                long position = HEADER_SIZE;
+                for (Map.Entry<String, Entry> e : live.entrySet()) {
+                    Entry entry = e.getValue();
+                    ByteBuffer record = ByteBuffer.allocate(entry.size);
+                    readFully(oldChannel, record, entry.offset);
+                    record.flip();
+                    writeFully(newChannel, record, position);
+                    Entry copy = new Entry(position, entry.size, entry.type, entry.valueOffset);
+                    copy.value = entry.value;
+                    newIndex.put(e.getKey(), copy);
+                    position += entry.size;
+                }
+                synchronized (this) {
+                    ByteBuffer tail = ByteBuffer.allocate((int) (end - copied));
+                    readFully(channel, tail, copied);
+                    tail.flip();
+                    writeFully(newChannel, tail, position);
+                    tail.flip();
+                    long liveGarbage = garbage;
+                    garbage = 0;
+                    replay(tail, position, newIndex);
+                    newChannel.force(false);
+                    if (!tmp.renameTo(file)) {
+                        garbage = liveGarbage;
+                        throw new IOException("Failed to rename " + tmp + " to " + file);
+                    }
+                    if (!readers.containsKey(raf)) raf.close(); // else closed by its last reader
+                    raf = newRaf;
+                    channel = newChannel;
+                    end = position + tail.limit();
+                    index = newIndex;
+                    swapped = true;
+                }
+            } finally {
+                if (!swapped) {
+                    newRaf.close();
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of file");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** The latest record of a key */
+    private static final class Entry {
+        final long offset;
+        final int size; // of the whole record
+        final byte type;
+        final int valueOffset; // from the start of the record payload
+        volatile Object value; // decoded on first read
+
+        Entry(long offset, int size, byte type, int valueOffset) {
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+            this.valueOffset = valueOffset;
+        }
+
+        int valueLength() {
+            return size - RECORD_HEADER_SIZE - valueOffset;
+        }
+    }
+
+    /** Reads a value from a file, which stays open until the stream is closed */
+    private final class RecordInputStream extends InputStream {
+        private final RandomAccessFile file;
+        private long position;
+        private final long end;
+        private boolean closed;
+
+        RecordInputStream(RandomAccessFile file, long position, int length) {
+            this.file = file;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Closed");
+            if (position >= end) return -1;
+            if (len == 0) return 0;
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int read = file.getChannel().read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of file");
+            position += read;
+            return read;
+        }
+
+        @Override public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            closed(file);
+        }
+    }
+
+    /**
+     * Encodes a streamed String value as UTF-8 into chunks, like {@link String#getBytes}
+     * does, so that the value is never held as a String or char array.
+     */
+    private static final class Chunks extends Writer {
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        int size;
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int count;
+        private char highSurrogate;
+
+        @Override public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; ++i) write(cbuf[i]);
+        }
+
+        @Override public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; ++i) write(str.charAt(i));
+        }
+
+        @Override public void write(int c) {
+            write((char) c);
+        }
+
+        private void write(char c) {
+            if (chunk.length - count < 4) {
+                chunks.add(ByteBuffer.wrap(chunk, 0, count));
+                size += count;
+                chunk = new byte[CHUNK_SIZE];
+                count = 0;
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    chunk[count++] = (byte) (0xf0 | codePoint >> 18);
+                    chunk[count++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    chunk[count++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    chunk[count++] = (byte) (0x80 | codePoint & 0x3f);
+                    return;
+                }
+                chunk[count++] = '?';
+                write(c);
+            } else if (c < 0x80) {
+                chunk[count++] = (byte) c;
+            } else if (c < 0x800) {
+                chunk[count++] = (byte) (0xc0 | c >> 6);
+                chunk[count++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                chunk[count++] = '?';
+            } else {
+                chunk[count++] = (byte) (0xe0 | c >> 12);
+                chunk[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                chunk[count++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+
+        @Override public void flush() {
+        }
+
+        /** Completes the value */
+        @Override public void close() {
+            if (chunk == null) return;
+            if (highSurrogate != 0) { // not followed by a low surrogate
+                highSurrogate = 0;
+                write('?');
+            }
+            if (count > 0) {
+                chunks.add(ByteBuffer.wrap(chunk, 0, count));
+                size += count;
+            }
+            chunk = null;
+        }
+    }
+
+    private final class Editor implements PrefsStore.StreamingEditor {
+        private final Map<String, Object> changes = new LinkedHashMap<>(); // null value to remove
+        private boolean clear;
+
+        private Editor put(String name, Object value) {
+            changes.remove(name); // moves the name to the end
+            changes.put(name, value);
+            return this;
+        }
+
+        @Override public Editor putString(String name, String value) {
+            return put(name, value);
+        }
+        @Override public Editor putStringSet(String name, Set<String> values) {
+            return put(name, values == null ? null : new HashSet<>(values));
+        }
+        @Override public Editor putInt(String name, int value) {
+            return put(name, value);
+        }
+        @Override public Editor putLong(String name, long value) {
+            return put(name, value);
+        }
+        @Override public Editor putFloat(String name, float value) {
+            return put(name, value);
+        }
+        @Override public Editor putBoolean(String name, boolean value) {
+            return put(name, value);
+        }
+        @Override public Editor putBytes(String name, byte[] value) {
+            return put(name, value == null ? null : value.clone());
+        }
+        @Override public Editor putString(String name, StringSource source) throws IOException {
+            Chunks value = new Chunks();
+            source.writeTo(value);
+            value.close();
+            return put(name, value);
+        }
+        @Override public Editor remove(String name) {
+            return put(name, null);
+        }
+        @Override public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override public void apply() {
+            write(false);
+        }
+
+        @Override public boolean commit() {
+            return write(true);
+        }
+
+        private boolean write(boolean force) {
+            if (!clear && changes.isEmpty()) return true;
+            Record records = new Record();
+            if (clear) records.add(CLEAR, null, null);
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                Object value = change.getValue();
+                byte type = value == null ? REMOVE : value instanceof Chunks ? STRING : StoreValues.typeOf(value);
+                records.add(type, change.getKey(), value);
+            }
+            if (!append(records, force)) {
+                for (ChangeListener listener : listeners) {
+                    if (!(listener instanceof WriteFailureListener)) continue;
+                    WriteFailureListener failures = (WriteFailureListener) listener;
+                    if (clear) failures.onWriteFailed(LogStore.this, null);
+                    for (String name : changes.keySet()) failures.onWriteFailed(LogStore.this, name);
+                }
+                return false;
+            }
+            if (!listeners.isEmpty()) {
+                for (ChangeListener listener : listeners) {
+                    if (clear) listener.onChanged(LogStore.this, null);
+                    for (String name : changes.keySet()) listener.onChanged(LogStore.this, name);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Encodes records into a growing buffer. The chunks of streamed values are written as
+     * they are, between the parts of the buffer.
+     */
+    private static final class Record {
+        private final List<ByteBuffer> parts = new ArrayList<>();
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+        private long sealed; // bytes in parts
+        private final CRC32 crc = new CRC32();
+        final List<Added> added = new ArrayList<>();
+
+        void add(byte type, String name, Object value) {
+            long offset = size();
+            int start = buffer.position();
+            ensure(RECORD_HEADER_SIZE + 3);
+            buffer.position(start + RECORD_HEADER_SIZE);
+            buffer.put(type);
+            int valueOffset = 1;
+            if (name != null) {
+                byte[] nameBytes = name.getBytes(UTF_8);
+                if (nameBytes.length > 0xffff) throw new IllegalArgumentException("Name too long: " + name);
+                buffer.putShort((short) nameBytes.length);
+                putBytes(nameBytes);
+                valueOffset += 2 + nameBytes.length;
+            }
+            Chunks chunks = value instanceof Chunks ? (Chunks) value : null;
+            if (chunks == null && value != null) putBytes(StoreValues.encode(type, value)); // CLEAR and REMOVE have no value
+            if (type == CLEAR) { // pad the record to the minimum payload size
+                ensure(2);
+                buffer.putShort((short) 0);
+            }
+            int length = buffer.position() - start - RECORD_HEADER_SIZE;
+            crc.reset();
+            crc.update(buffer.array(), start + RECORD_HEADER_SIZE, length);
+            if (chunks != null) {
+                for (ByteBuffer chunk : chunks.chunks) crc.update(chunk.array(), 0, chunk.limit());
+                length += chunks.size;
+            }
+            buffer.putInt(start, length);
+            buffer.putInt(start + 4, (int) crc.getValue());
+            if (chunks != null) {
+                seal();
+                for (ByteBuffer chunk : chunks.chunks) {
+                    parts.add(chunk.duplicate());
+                    sealed += chunk.limit();
+                }
+            }
+            added.add(new Added(type, name, offset, RECORD_HEADER_SIZE + length, valueOffset));
+        }
+
+        private void seal() {
+            buffer.flip();
+            parts.add(buffer);
+            sealed += buffer.limit();
+            buffer = ByteBuffer.allocate(256);
+        }
+
+        private void putBytes(byte[] bytes) {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        long size() {
+            return sealed + buffer.position();
+        }
+
+        ByteBuffer[] toBuffers() {
+            if (buffer.position() > 0) seal();
+            return parts.toArray(new ByteBuffer[parts.size()]);
+        }
+
+        /** A record, at its offset from the start of the records */
+        static final class Added {
+            final byte type;
+            final String name;
+            final long offset;
+            final int size;
+            final int valueOffset;
+
+            Added(byte type, String name, long offset, int size, int valueOffset) {
+                this.type = type;
+                this.name = name;
+                this.offset = offset;
+                this.size = size;
+                this.valueOffset = valueOffset;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import android.util.LruCache;
+
+/**
+ * A {@link ValueCache} backed by {@link LruCache}. Eviction follows strict LRU order, but
+ * every access, including hits, takes the single monitor of the {@link LruCache}. Prefer
+ * {@link ConcurrentValueCache} when prefs are read from several threads. This cache
+ * bounds the number of entries and ignores their weights.
+ *
+ * @author Inderjeet Singh
+ */
+public class LruValueCache implements ValueCache {
+
+    private final LruCache<String, Object> cache;
+
+    public LruValueCache(int maxSize) {
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    @Override
+    public Object get(String name) {
+        return cache.get(name);
+    }
+
+    @Override
+    public void put(String name, Object value, int weight) {
+        cache.put(name, value);
+    }
+
+    @Override
+    public Object remove(String name) {
+        return cache.remove(name);
+    }
+
+    @Override
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+}
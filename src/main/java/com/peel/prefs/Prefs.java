@@ -15,19 +15,32 @@
  */
 package com.peel.prefs;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.peel.prefs.PrefsStore.Editor;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.preference.PreferenceManager;
-import android.util.LruCache;
 
 /**
  * This class provides type-safe access to Android preferences. Any arbitrary object
@@ -37,14 +50,42 @@ import android.util.LruCache;
  */
 public class Prefs {
 
-    private static final Type STRING_SET_TYPE = new TypeToken<Set<String>>() {}.getType();
-
     public interface EventListener {
         <T> void onPut(TypedKey<T> key, T value);
         <T> void onRemove(TypedKey<T> key);
     }
-    private final List<EventListener> listeners = new ArrayList<>();
+    private final ListenerRegistry listeners = new ListenerRegistry();
+
+    /**
+     * Receives the result of an asynchronous operation
+     */
+    public interface Callback<T> {
+        void onSuccess(T value);
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * Receives key names from {@link Prefs#forEachKey(KeyVisitor)}
+     */
+    public interface KeyVisitor {
+        void visit(String name);
+    }
 
+    /**
+     * Computes the new value of a key from its current value
+     */
+    public interface Updater<T> {
+        /**
+         * @param value the current value, as returned by {@link Prefs#get(TypedKey)}
+         * @return the new value
+         */
+        T apply(T value);
+    }
+
+    /**
+     * Registers a listener for changes to all keys. Listeners can be added and removed at
+     * any time, from any thread.
+     */
     public void addListener(EventListener listener) {
         requireNonNull(listener);
         listeners.add(listener);
@@ -55,23 +96,356 @@ public class Prefs {
         listeners.remove(listener);
     }
 
-    private final Context context;
+    /**
+     * Registers a listener for changes to the key with the same name as this key
+     */
+    public void addListener(TypedKey<?> key, EventListener listener) {
+        requireNonNull(listener);
+        listeners.addForName(key.getName(), listener);
+    }
+
+    public void removeListener(TypedKey<?> key, EventListener listener) {
+        requireNonNull(listener);
+        listeners.removeForName(key.getName(), listener);
+    }
+
+    /**
+     * Registers a listener for changes to keys with this tag
+     */
+    public void addListener(String tag, EventListener listener) {
+        requireNonNull(tag);
+        requireNonNull(listener);
+        listeners.addForTag(tag, listener);
+    }
+
+    public void removeListener(String tag, EventListener listener) {
+        requireNonNull(listener);
+        listeners.removeForTag(tag, listener);
+    }
+
+    /**
+     * Dispatches events to listeners on the executor, so that slow listeners do not hold
+     * up the writer. Use a serial executor if listeners depend on the order of events.
+     *
+     * @param executor the executor for listeners, or null to notify listeners on the thread
+     *   that made the change, which is the default
+     */
+    public void setListenerExecutor(Executor executor) {
+        listeners.setExecutor(executor);
+    }
+
+    private final Context context; // null if created with a PrefsStore
+    private final PrefsStore store;
     private final Gson gson;
     private final String prefsFileName;
+    private final ConcurrentMap<Type, Codec<?>> codecs = new ConcurrentHashMap<>();
     // Visible for testing only
-    final LruCache<String, Object> cache;
+    final ValueCache cache;
+    private final KeyIndex keyIndex = new KeyIndex();
+    private volatile boolean absentKeyCaching; // whether reads trust the key index
+    private volatile WriteBehind writeBehind; // null unless write-behind is enabled
+    private final ConcurrentMap<String, AsyncGet<?>> asyncGets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PreloadTask> preloads = new ConcurrentHashMap<>();
+    private final KeyRegistry registry = new KeyRegistry();
+    private volatile StartupProfile startupProfile; // null unless recording
+    private volatile ChangeTracker changeTracker; // null unless external changes are tracked
+    private volatile ProcessSync processSync; // null unless multi-process mode is enabled
+    private final AtomicLong modCount = new AtomicLong(); // incremented before the cache is changed by a write
+    private final AtomicLong skippedWrites = new AtomicLong();
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<>();
+    private final ThreadLocal<Boolean> writeFailed; // set when a write on this thread is lost, null if never reported
+    private ScheduledFuture<?> counterPersistence; // guarded by this
+    private final Object[] keyLocks = new Object[32]; // striped by key name, for read-modify-write
+    {
+        for (int i = 0; i < keyLocks.length; ++i) keyLocks[i] = new Object();
+    }
 
     public Prefs(Context context, Gson gson) {
         this(context, gson, null, 25);
     }
 
     public Prefs(Context context, Gson gson, String prefsFileName, int maxCacheSize) {
+        this(context, gson, prefsFileName, new ConcurrentValueCache(maxCacheSize));
+    }
+
+    /**
+     * @param cache the in-memory cache for values of keys that are cacheable
+     */
+    public Prefs(Context context, Gson gson, String prefsFileName, ValueCache cache) {
+        this(context, new SharedPreferencesStore(context, prefsFileName), gson, prefsFileName, cache);
+    }
+
+    /**
+     * Creates an instance that reads and writes through a {@link PrefsStore} instead of the
+     * {@link SharedPreferences} of a {@link Context}.
+     *
+     * @param prefsFileName the name under which this instance is known to {@link SharedPrefs}
+     *   and to {@link TypedKey#getPrefsFileName()}, or null for the default prefs
+     * @param cache the in-memory cache for values of keys that are cacheable
+     */
+    public Prefs(PrefsStore store, Gson gson, String prefsFileName, ValueCache cache) {
+        this(null, store, gson, prefsFileName, cache);
+    }
+
+    private Prefs(Context context, PrefsStore store, Gson gson, String prefsFileName, ValueCache cache) {
+        requireNonNull(store);
+        requireNonNull(cache);
         this.context = context;
+        this.store = store;
         this.gson = gson;
         this.prefsFileName = prefsFileName;
-        this.cache = new LruCache<>(maxCacheSize);
+        this.cache = cache;
+        if (store instanceof SharedPreferencesStore) { // SharedPreferences never reports failed writes
+            this.writeFailed = null;
+        } else {
+            this.writeFailed = new ThreadLocal<>();
+            store.addChangeListener(new PrefsStore.WriteFailureListener() {
+                @Override public void onChanged(PrefsStore store, String name) {
+                }
+                @Override public void onWriteFailed(PrefsStore store, String name) {
+                    writeFailed.set(Boolean.TRUE); // see apply(Editor)
+                    externalChange(name); // drops the cached value, and fixes the key index
+                }
+            });
+        }
     }
 
+    /**
+     * Keeps the set of key names present in the prefs file in memory, so that lookups for
+     * absent keys do not go to {@link SharedPreferences}. The set is loaded from the file
+     * on first use and then maintained by this class. Enable this only if all writes to the
+     * prefs file go through this instance.
+     *
+     * @param enabled whether absent keys should be cached
+     */
+    public void setAbsentKeyCachingEnabled(boolean enabled) {
+        if (enabled && !absentKeyCaching) keyIndex.reset(); // may have missed writes by others
+        absentKeyCaching = enabled;
+    }
+
+    /**
+     * Listens for changes to the prefs file that do not go through this instance, such as
+     * writes by code that uses {@link SharedPreferences} directly or by a
+     * {@code PreferenceFragment}. The cached value of a changed key is dropped, and the change
+     * is forwarded to the {@link EventListener}s. Keys that are registered or were put
+     * through this instance are passed to the listeners as is; for other keys, listeners
+     * receive an uncached {@code TypedKey<Object>} and the value as stored.
+     *
+     * @param enabled whether external changes should be tracked
+     */
+    public synchronized void setExternalChangeTrackingEnabled(boolean enabled) {
+        ChangeTracker tracker = changeTracker;
+        if (enabled == (tracker != null)) return;
+        if (enabled) {
+            tracker = new ChangeTracker(this);
+            store.addChangeListener(tracker);
+        } else {
+            store.removeChangeListener(tracker);
+            tracker = null;
+        }
+        changeTracker = tracker;
+    }
+
+    /**
+     * Same as {@link #enableMultiProcess(File)} with a stamp file in the app's files directory
+     *
+     * @throws IllegalStateException if this instance was created with a {@link PrefsStore}
+     */
+    public void enableMultiProcess() throws IOException {
+        if (context == null) throw new IllegalStateException("No Context, use enableMultiProcess(File)");
+        String name = prefsFileName == null ? "default" : prefsFileName;
+        enableMultiProcess(new File(context.getFilesDir(), "prefs_" + name + ".stamp"));
+    }
+
+    /**
+     * Switches to multi-process mode, for prefs files that are written by more than one
+     * process of the app. In this mode, each write is committed to disk and recorded in a
+     * small memory-mapped stamp file that all processes share. Each read first checks the
+     * stamp, which is cheap, and only if another process has written since, reloads the
+     * prefs file and drops the cached values of the keys that were changed.
+     *
+     * <p>Since writes are committed synchronously, consider combining this mode with
+     * {@link #enableWriteBehind(ScheduledExecutorService, long, long, TimeUnit) write-behind}
+     * to keep writes off the main thread.
+     *
+     * @param stampFile the stamp file, which must be the same in all processes
+     */
+    public synchronized void enableMultiProcess(File stampFile) throws IOException {
+        requireNonNull(stampFile);
+        disableMultiProcess();
+        processSync = new ProcessSync(this, stampFile);
+    }
+
+    public synchronized void disableMultiProcess() {
+        ProcessSync sync = processSync;
+        if (sync != null) {
+            processSync = null;
+            try {
+                sync.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Called when other processes have changed the prefs file
+     *
+     * @param nameHashes the hash codes of the names of the changed keys, or null if any
+     *   key may have changed
+     */
+    void changedByOtherProcess(Set<Integer> nameHashes) {
+        store.reload();
+        asyncGets.clear();
+        modCount.incrementAndGet();
+        if (nameHashes == null) {
+            cache.clear();
+            keyIndex.reset();
+            return;
+        }
+        Set<Integer> unknown = invalidateIndexed(nameHashes);
+        if (unknown.isEmpty()) return;
+        // Keys not in the index, such as keys added by other processes, are found by
+        // loading the index from the file again
+        keyIndex.reset();
+        loadKeyIndex();
+        invalidateIndexed(unknown);
+    }
+
+    /**
+     * Drops the cached values of the indexed keys whose names have these hash codes, and
+     * drops the keys that were removed from the index
+     *
+     * @return the hash codes that match no indexed key
+     */
+    private Set<Integer> invalidateIndexed(Set<Integer> nameHashes) {
+        Set<Integer> unknown = new HashSet<>(nameHashes);
+        for (String name : keyIndex.keys()) {
+            int hash = name.hashCode();
+            if (nameHashes.contains(hash)) {
+                cache.remove(name);
+                if (!store.contains(name) && pending(name) == null) keyIndex.remove(name);
+                unknown.remove(hash);
+            }
+        }
+        return unknown;
+    }
+
+    private void checkOtherProcesses() {
+        ProcessSync sync = processSync;
+        if (sync != null) sync.check();
+    }
+
+    /**
+     * Switches to write-behind mode. In this mode, changes are kept in memory and written
+     * to the prefs file together, with a single editor, once no key has changed for the
+     * debounce interval or once the oldest unwritten change is older than the maximum delay.
+     * Reads always see the latest value. Use this for keys that change many times per
+     * second, such as playback positions or counters.
+     *
+     * <p>Unwritten changes are lost if the process dies. Call {@link #flush()} when the app
+     * goes to the background, for example from {@code Activity.onPause()}.
+     *
+     * @param executor the executor on which changes are written
+     * @param debounce how long to wait after the last change before writing
+     * @param maxDelay the maximum time a change can remain unwritten
+     * @param unit the unit for {@code debounce} and {@code maxDelay}
+     */
+    public synchronized void enableWriteBehind(ScheduledExecutorService executor, long debounce, long maxDelay, TimeUnit unit) {
+        requireNonNull(executor);
+        requireNonNull(unit);
+        if (debounce < 0 || maxDelay < debounce) {
+            throw new IllegalArgumentException("Need 0 <= debounce <= maxDelay");
+        }
+        disableWriteBehind();
+        writeBehind = new WriteBehind(this, executor, debounce, maxDelay, unit);
+    }
+
+    /**
+     * Writes any pending changes and switches back to writing every change immediately.
+     */
+    public synchronized void disableWriteBehind() {
+        WriteBehind wb = writeBehind;
+        if (wb != null) {
+            wb.flush();
+            writeBehind = null;
+            wb.flush(); // changes made while switching
+        }
+    }
+
+    /**
+     * Writes all changes that are pending in write-behind mode, with a single editor, along
+     * with the {@link CounterKey counters} that changed since they were last written.
+     */
+    public void flush() {
+        flushCounters(); // first, since counters are written with the pending changes
+        WriteBehind wb = writeBehind;
+        if (wb != null) wb.flush();
+    }
+
+    /**
+     * Writes the values of {@link CounterKey counters} that changed since they were last
+     * written, with a single editor, at a fixed rate. {@link #flush()} also writes them.
+     *
+     * @param executor the executor on which counters are written
+     * @param period the interval between writes
+     * @param unit the unit for {@code period}
+     */
+    public synchronized void enableCounterPersistence(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        requireNonNull(executor);
+        requireNonNull(unit);
+        disableCounterPersistence();
+        counterPersistence = executor.scheduleAtFixedRate(new Runnable() {
+            @Override public void run() {
+                flushCounters();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Writes the counters and stops writing them periodically
+     */
+    public synchronized void disableCounterPersistence() {
+        if (counterPersistence != null) {
+            counterPersistence.cancel(false);
+            counterPersistence = null;
+            flushCounters();
+        }
+    }
+
+    /**
+     * Holds the lock on {@link #counters} until the editor is applied, since puts and removes
+     * of a counter's key drop the counter under that lock. A flush thus never overwrites a
+     * newer value with a stale total.
+     */
+    private void flushCounters() {
+        if (counters.isEmpty()) return;
+        synchronized (counters) { // one flush at a time
+            Codec<Long> codec = codec(Long.class);
+            Editor editor = null;
+            for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+                String name = entry.getKey();
+                StripedCounter counter = entry.getValue();
+                long value = counter.get();
+                if (value == counter.persisted) continue;
+                if (writeBehind != null) {
+                    putPending(name, codec, value, false, null);
+                } else {
+                    if (editor == null) editor = editor();
+                    stagePut(editor, name, codec, value, false, null);
+                }
+                counter.persisted = value;
+            }
+            if (editor != null) editor.apply();
+        }
+    }
+
+    void setStartupProfile(StartupProfile profile) {
+        this.startupProfile = profile;
+    }
+
+    /**
+     * @return the context, or null if this instance was created with a {@link PrefsStore}
+     */
     public Context context() {
         return context;
     }
@@ -81,82 +455,215 @@ public class Prefs {
     }
 
     public <T> T get(TypedKey<T> key) {
-        return getInternal(key.getName(), key.getTypeOfValue());
+        StartupProfile profile = startupProfile;
+        if (profile != null) profile.record(this, key);
+        return getInternal(key.getName(), codec(key));
     }
 
     public <T> T get(String key, Class<T> keyClass) {
-        return getInternal(key, keyClass);
+        return getInternal(key, this.<T>codec(keyClass));
     }
 
     public <T> T get(TypedKey<T> key, T defaultValue) {
         return contains(key) ? get(key) : defaultValue;
     }
 
+    /**
+     * Reads the value of the key on the specified executor, so that loading the prefs file
+     * or decoding a large JSON value does not block the caller. Concurrent asynchronous
+     * reads of the same key are served by a single read.
+     *
+     * @return a future for the value, as returned by {@link #get(TypedKey)}
+     */
+    public <T> Future<T> getAsync(final TypedKey<T> key, Executor executor) {
+        String name = key.getName();
+        @SuppressWarnings("unchecked")
+        AsyncGet<T> read = (AsyncGet<T>) asyncGets.get(name);
+        if (read == null) {
+            AsyncGet<T> newRead = new AsyncGet<>(name, new Callable<T>() {
+                @Override public T call() {
+                    return get(key);
+                }
+            }, asyncGets);
+            @SuppressWarnings("unchecked")
+            AsyncGet<T> existing = (AsyncGet<T>) asyncGets.putIfAbsent(name, newRead);
+            if (existing == null) {
+                read = newRead;
+                try {
+                    executor.execute(read);
+                } catch (RuntimeException e) { // rejected
+                    asyncGets.remove(name, read);
+                    throw e;
+                }
+            } else {
+                read = existing;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Same as {@link #getAsync(TypedKey, Executor)}, but delivers the value to the callback
+     * on the thread that completes the read.
+     */
+    public <T> void getAsync(TypedKey<T> key, Executor executor, Callback<? super T> callback) {
+        requireNonNull(callback);
+        ((AsyncGet<T>) getAsync(key, executor)).addCallback(callback);
+    }
+
+    /**
+     * Serializes and writes the value on the specified executor. Operations run in the
+     * order in which the executor runs them, so use a serial executor if the order of puts
+     * for a key matters.
+     *
+     * @return a future that completes once the value has been put
+     */
+    public <T> Future<Void> putAsync(final TypedKey<T> key, final T value, Executor executor) {
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override public Void call() {
+                put(key, value);
+                return null;
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Loads the prefs file into memory, blocking until it has been loaded. Otherwise, the file
+     * is loaded on first access by whichever thread gets there first.
+     *
+     * @return the number of keys, including those with unwritten changes
+     */
+    public int load() {
+        return loadedKeyIndex().size();
+    }
+
+    /**
+     * Writes any pending changes and reads the names of all keys from the prefs file, so
+     * that keys written by others are included. {@link #keys()} is faster.
+     */
     public Set<String> keySet() {
+        flush();
         return getPrefs().getAll().keySet();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Returns the names of all keys as a live, unmodifiable view of an index that is kept in
+     * memory. The index is loaded from the prefs file on first use, and then maintained on
+     * every put, remove and clear through this instance, including unwritten
+     * {@link #enableWriteBehind(ScheduledExecutorService, long, long, TimeUnit) write-behind}
+     * changes. Writes by others are reflected only if
+     * {@link #setExternalChangeTrackingEnabled(boolean) external change tracking} or
+     * {@link #enableMultiProcess(File) multi-process mode} is enabled. Iteration is weakly
+     * consistent: it never fails because of concurrent writes, and may or may not see them.
+     */
+    public Set<String> keys() {
+        return loadedKeyIndex().keys();
+    }
+
+    /**
+     * @return the number of keys. See {@link #keys()}.
+     */
+    public int size() {
+        return loadedKeyIndex().size();
+    }
+
+    /**
+     * Passes the name of each key to the visitor, without copying the names.
+     * See {@link #keys()}.
+     */
+    public void forEachKey(KeyVisitor visitor) {
+        for (String name : loadedKeyIndex().keys()) {
+            visitor.visit(name);
+        }
+    }
+
+    private KeyIndex loadedKeyIndex() {
+        checkOtherProcesses();
+        return loadKeyIndex();
+    }
+
+    private KeyIndex loadKeyIndex() {
+        KeyIndex index = keyIndex;
+        if (index.isLoaded()) return index;
+        WriteBehind wb = writeBehind;
+        if (wb == null) {
+            index.load(getPrefs());
+        } else { // the file does not have the unwritten changes yet
+            Set<String> names = new HashSet<>(getPrefs().getAll().keySet());
+            for (Map.Entry<String, WriteBehind.Pending<?>> entry : wb.pending().entrySet()) {
+                WriteBehind.Pending<?> pending = entry.getValue();
+                if (pending.remove || pending.value == null) { // a null value removes the key
+                    names.remove(entry.getKey());
+                } else {
+                    names.add(entry.getKey());
+                }
+            }
+            index.load(names);
+        }
+        return index;
+    }
+
     public <T> T get(String keyName, Class<T> keyClass, T defaultValue) {
-        boolean contains = getPrefs().contains(keyName);
-        return contains ? (T) getInternal(keyName, keyClass) : defaultValue;
+        boolean contains = containsName(keyName);
+        return contains ? getInternal(keyName, this.<T>codec(keyClass)) : defaultValue;
     }
 
     @SuppressWarnings("unchecked")
-    private <T> T getInternal(String name, Type type) {
-        SharedPreferences prefs = getPrefs();
+    private <T> T getInternal(String name, Codec<T> codec) {
+        checkOtherProcesses();
+        if (!preloads.isEmpty()) {
+            PreloadTask preload = preloads.get(name);
+            if (preload != null) preload.await();
+        }
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? codec.defaultValue() : (T) pending.value;
+        }
         T instance = (T) cache.get(name);
-        if (instance == null) {
-            try {
-                if (prefs.contains(name)) {
-                    if (type == Boolean.class || type == boolean.class) {
-                        boolean value = prefs.getBoolean(name, false);
-                        instance = (T) Boolean.valueOf(value);
-                    } else if (type == String.class) {
-                        String str = prefs.getString(name, null);
-                        str = stripJsonQuotesIfPresent(str);
-                        instance = (T) str;
-                    } else if (type == Integer.class || type == int.class) {
-                        int value = prefs.getInt(name, 0);
-                        instance = (T) Integer.valueOf((int)value);
-                    } else if (type == Long.class || type == long.class) {
-                        long value = prefs.getLong(name, 0L);
-                        instance = (T) Long.valueOf((long)value);
-                    } else if (type == Float.class || type == float.class) {
-                        float value = prefs.getFloat(name, 0f);
-                        instance = (T) Float.valueOf((float)value);
-                    } else if (type == Double.class || type == double.class) {
-                        float value = prefs.getFloat(name, 0f);
-                        instance = (T) Double.valueOf((double)value);
-                    } else if (type == Short.class || type == short.class) {
-                        int value = prefs.getInt(name, 0);
-                        instance = (T) Short.valueOf((short)value);
-                    } else if (type == Byte.class || type == byte.class) {
-                        int value = prefs.getInt(name, 0);
-                        instance = (T) Byte.valueOf((byte)value);
-                    } else if (type.equals(STRING_SET_TYPE)) {
-                        Set<String> value = prefs.getStringSet(name, null);
-                        instance = (T) value;
-                    }
-                }
-            } catch (ClassCastException ignored) {
-                // This can happen if the integer was previously stored as String
-            }
+        if (instance == null && (!absentKeyCaching || containsName(name))) {
+            instance = codec.read(getPrefs(), name);
         }
-        if (instance == null) {
-            String json = prefs.getString(name, null);
-            instance = gson.fromJson(json, type);
+        return instance == null ? codec.defaultValue() : instance;
+    }
+
+    private <T> Codec<T> codec(TypedKey<T> key) {
+        Codec<T> codec = key.codec;
+        if (codec == null || codec.gson != gson) {
+            ValueCodec<T> valueCodec = key.getValueCodec();
+            codec = valueCodec == null ? this.<T>codec(key.getTypeOfValue()) : Codec.create(gson, valueCodec);
+            key.codec = codec;
         }
-        if (instance == null && (type == Boolean.class || type == boolean.class)) {
-            return (T) Boolean.FALSE; // default value for Boolean to avoid NPE for flags
+        return codec;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Codec<T> codec(Type type) {
+        Codec<?> codec = codecs.get(type);
+        if (codec == null) {
+            codec = Codec.create(gson, type);
+            Codec<?> existing = codecs.putIfAbsent(type, codec);
+            if (existing != null) codec = existing;
         }
-        return instance;
+        return (Codec<T>) codec;
+    }
+
+    private Editor editor() {
+        return editor(getPrefs());
+    }
+
+    private Editor editor(PrefsStore prefs) {
+        Editor editor = prefs.edit();
+        ChangeTracker tracker = changeTracker;
+        if (tracker != null) editor = tracker.wrap(editor);
+        ProcessSync sync = processSync;
+        return sync == null ? editor : sync.wrap(editor);
     }
 
-    private SharedPreferences getPrefs() {
-        return prefsFileName == null
-                ? PreferenceManager.getDefaultSharedPreferences(context)
-                : context.getSharedPreferences(prefsFileName, Context.MODE_PRIVATE);
+    private PrefsStore getPrefs() {
+        checkOtherProcesses();
+        return store;
     }
 
     // Visible for testing only
@@ -172,23 +679,66 @@ public class Prefs {
 
     public <T> boolean contains(TypedKey<T> key) {
         String name = key.getName();
-        return cache.get(name) != null || getPrefs().contains(name);
+        checkOtherProcesses();
+        return cache.get(name) != null || containsName(name);
     }
 
     public <T> boolean contains(String keyName, Class<T> keyClass) {
-        return getPrefs().contains(keyName);
+        return containsName(keyName);
+    }
+
+    private boolean containsName(String name) {
+        checkOtherProcesses();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) return !pending.remove && pending.value != null;
+        if (!absentKeyCaching) return getPrefs().contains(name);
+        return loadedKeyIndex().contains(name);
+    }
+
+    private WriteBehind.Pending<?> pending(String name) {
+        WriteBehind wb = writeBehind;
+        return wb == null ? null : wb.get(name);
+    }
+
+    /** Bookkeeping for a key that was just written */
+    private void added(String name) {
+        keyIndex.add(name);
+        if (!asyncGets.isEmpty()) asyncGets.remove(name); // later async reads must see this value
     }
 
     public <T> void put(TypedKey<T> key, T value) {
-        putInternal(key.getName(), key.getTypeOfValue(), value, key.isCacheableInMemory());
-        for (EventListener listener : listeners) listener.onPut(key, value);
+        String name = key.getName();
+        boolean written;
+        if (isCounter(key)) {
+            synchronized (keyLock(name)) { // so that the counter is not created again with the old value
+                synchronized (counters) { // see flushCounters()
+                    counters.remove(name);
+                    written = write(key, value);
+                }
+            }
+        } else {
+            written = write(key, value);
+        }
+        if (written) listeners.onPut(key, value);
+    }
+
+    /** @return false if the write was skipped since the value was unchanged, or was lost */
+    private <T> boolean write(TypedKey<T> key, T value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return false;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        return putInternal(key.getName(), codec(key), value, key.isCacheableInMemory(), key.getWeigher());
+    }
+
+    /** @return true if the key may have an in-memory {@link CounterKey counter} */
+    private boolean isCounter(TypedKey<?> key) {
+        return key instanceof CounterKey || !counters.isEmpty() && counters.containsKey(key.getName());
     }
 
     public <T> void put(String keyName, Class<T> keyClass, T value) {
-        putInternal(keyName, keyClass, value, false);
-        if (!listeners.isEmpty()) {
+        boolean written = putInternal(keyName, this.<T>codec(keyClass), value, false, null);
+        if (written && !listeners.isEmpty()) {
             TypedKey<T> key = new TypedKey<>(keyName, keyClass, false);
-            for (EventListener listener : listeners) listener.onPut(key, value);
+            listeners.onPut(key, value);
         }
     }
 
@@ -204,35 +754,612 @@ public class Prefs {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> void putInternal(String name, Type type, T value, boolean cacheable) {
-        if (cacheable) cache.put(name, value);
-        SharedPreferences prefs = getPrefs();
-        Editor editor = prefs.edit();
-        if (type == Boolean.class || type == boolean.class) {
-            editor.putBoolean(name, (Boolean) value);
-        } else if (type == String.class) {
-            editor.putString(name, (String) value);
-        } else if (type == Integer.class || type == int.class) {
-            editor.putInt(name, (Integer) value);
-        } else if (type == Long.class || type == long.class) {
-            editor.putLong(name, (Long) value);
-        } else if (type == Float.class || type == float.class) {
-            editor.putFloat(name, (Float) value);
-        } else if (type == Double.class || type == double.class) {
-            Double wrapper = value instanceof Double ? (Double) value : new Double((Double) value);
-            editor.putFloat(name, wrapper.floatValue());
-        } else if (type == Short.class || type == short.class) {
-            editor.putInt(name, (Short) value);
-        } else if (type == Byte.class || type == byte.class) {
-            editor.putInt(name, (Byte) value);
-        } else if (type.equals(STRING_SET_TYPE)) {
-            editor.putStringSet(name, (Set<String>)value);
+    /**
+     * Registers keys so that they can be found by their tags. A key is registered
+     * automatically when it is put, so register keys whose values may have been stored in
+     * an earlier session, typically at startup.
+     */
+    public void register(TypedKey<?>... keys) {
+        for (TypedKey<?> key : keys) {
+            registry.register(key);
+        }
+    }
+
+    /**
+     * @return a live, unmodifiable view of the registered keys with this tag
+     */
+    public Set<TypedKey<?>> keysWithTag(String tag) {
+        return registry.keys(tag);
+    }
+
+    /**
+     * @return the values of the registered keys with this tag that are present
+     */
+    public Map<TypedKey<?>, Object> getAll(String tag) {
+        Map<TypedKey<?>, Object> values = new LinkedHashMap<>();
+        for (TypedKey<?> key : registry.keys(tag)) {
+            if (contains(key)) values.put(key, get(key));
+        }
+        return values;
+    }
+
+    /**
+     * Removes all registered keys with this tag with a single editor. For example, tag
+     * session-scoped keys and remove them on logout.
+     */
+    public void removeAll(String tag) {
+        Batch batch = edit();
+        for (TypedKey<?> key : registry.keys(tag)) {
+            batch.remove(key);
+        }
+        batch.apply();
+    }
+
+    /**
+     * Reads the values of the registered cacheable keys with this tag into the in-memory
+     * cache, so that later reads do not have to load or decode them.
+     */
+    public void preload(String tag) {
+        PrefsStore prefs = getPrefs();
+        for (TypedKey<?> key : registry.keys(tag)) {
+            preload(prefs, key);
+        }
+    }
+
+    /**
+     * Loads the prefs file and reads the values of the cacheable keys into the in-memory
+     * cache on the specified executor, in the order of the keys. A caller who reads a key
+     * before the preload gets to it reads that key itself, and a caller who reads a key that
+     * is being preloaded waits only for that key. Use this at startup for large JSON values
+     * that would otherwise be decoded on the main thread.
+     *
+     * @return a future that completes once all keys have been preloaded
+     */
+    public Future<Void> preload(Iterable<? extends TypedKey<?>> keys, Executor executor) {
+        final List<PreloadTask> tasks = new ArrayList<>();
+        for (final TypedKey<?> key : keys) {
+            if (!key.isCacheableInMemory()) continue;
+            String name = key.getName();
+            PreloadTask task = new PreloadTask(name, new Runnable() {
+                @Override public void run() {
+                    preload(getPrefs(), key);
+                }
+            }, preloads);
+            if (preloads.putIfAbsent(name, task) == null) tasks.add(task);
+        }
+        FutureTask<Void> all = new FutureTask<>(new Runnable() {
+            @Override public void run() {
+                for (PreloadTask task : tasks) task.run(); // no-op for the keys already read by callers
+            }
+        }, null);
+        try {
+            executor.execute(all);
+        } catch (RuntimeException e) { // rejected
+            for (PreloadTask task : tasks) preloads.remove(task.name(), task);
+            throw e;
+        }
+        return all;
+    }
+
+    private <T> void preload(PrefsStore prefs, TypedKey<T> key) {
+        String name = key.getName();
+        if (!key.isCacheableInMemory() || pending(name) != null || cache.get(name) != null) return;
+        long mods = modCount.get();
+        Codec<T> codec = codec(key);
+        T value = codec.read(prefs, name);
+        if (value == null) return;
+        Weigher<? super T> weigher = key.getWeigher();
+        cache.put(name, value, weigher == null ? codec.weigh(prefs, name, value) : weigher.weigh(value));
+        if (modCount.get() != mods) cache.remove(name); // raced with a write, so the value may be stale
+    }
+
+    /**
+     * Atomically replaces the value of the key with the value computed by the updater. The
+     * update is atomic with respect to other calls to {@code update}, {@link #increment} and
+     * {@link #compareAndSet} for the same key, but not with respect to plain puts. Updates
+     * of keys with different names usually do not block each other.
+     *
+     * @return the new value
+     */
+    public <T> T update(TypedKey<T> key, Updater<T> updater) {
+        requireNonNull(updater);
+        synchronized (keyLock(key.getName())) {
+            T value = updater.apply(get(key));
+            put(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * Atomically adds delta to the value of the key, treating an absent value as 0.
+     * See {@link #update(TypedKey, Updater)}. For a {@link CounterKey}, same as
+     * {@link #add(CounterKey, long)} followed by {@link #getCount(CounterKey)}, which is not
+     * atomic: the increment itself is never lost, but concurrent callers may see the same
+     * total.
+     *
+     * @return the new value, which is approximate for a {@link CounterKey} that is
+     *   incremented concurrently
+     */
+    public long increment(TypedKey<Long> key, long delta) {
+        if (key instanceof CounterKey) {
+            CounterKey counterKey = (CounterKey) key;
+            add(counterKey, delta);
+            return getCount(counterKey);
+        }
+        synchronized (keyLock(key.getName())) {
+            if (key instanceof LongKey) { // avoids boxing
+                LongKey longKey = (LongKey) key;
+                long value = getLong(longKey) + delta;
+                putLong(longKey, value);
+                return value;
+            }
+            Long current = get(key);
+            long value = (current == null ? 0L : current) + delta;
+            put(key, value);
+            return value;
+        }
+    }
+
+    public void increment(CounterKey key) {
+        counter(key).add(1);
+    }
+
+    /**
+     * Adds delta to the in-memory value of the counter. This is cheap even when many threads
+     * increment the same counter, and does not write to the prefs file.
+     */
+    public void add(CounterKey key, long delta) {
+        counter(key).add(delta);
+    }
+
+    /**
+     * @return the in-memory value of the counter, including increments not yet written
+     */
+    public long getCount(CounterKey key) {
+        return counter(key).get();
+    }
+
+    private StripedCounter counter(CounterKey key) {
+        String name = key.getName();
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            synchronized (keyLock(name)) {
+                counter = counters.get(name);
+                if (counter == null) {
+                    Long persisted = get(key);
+                    counter = new StripedCounter(persisted == null ? 0L : persisted);
+                    counters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Atomically sets the value of the key to {@code update} if the current value equals
+     * {@code expect}. See {@link #update(TypedKey, Updater)}.
+     *
+     * @param expect the expected current value, null if the key is expected to be absent
+     * @return true if the value was set
+     */
+    public <T> boolean compareAndSet(TypedKey<T> key, T expect, T update) {
+        synchronized (keyLock(key.getName())) {
+            T current = contains(key) ? get(key) : null;
+            if (current == null ? expect != null : !current.equals(expect)) return false;
+            put(key, update);
+            return true;
+        }
+    }
+
+    private Object keyLock(String name) {
+        int hash = name.hashCode();
+        return keyLocks[(hash ^ (hash >>> 16)) & (keyLocks.length - 1)];
+    }
+
+    /**
+     * Reads an int value without boxing it or going through the in-memory cache.
+     * @return the stored value, or {@code 0} if none is stored
+     */
+    public int getInt(IntKey key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(IntKey key, int defaultValue) {
+        String name = key.getName();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? defaultValue : ((Number) pending.value).intValue();
+        }
+        PrefsStore prefs = getPrefs();
+        try {
+            return prefs.getInt(name, defaultValue);
+        } catch (ClassCastException e) { // stored as a String
+            Integer value = prefs.contains(name) ? get(key) : null;
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    public long getLong(LongKey key) {
+        return getLong(key, 0L);
+    }
+
+    public long getLong(LongKey key, long defaultValue) {
+        String name = key.getName();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? defaultValue : ((Number) pending.value).longValue();
+        }
+        PrefsStore prefs = getPrefs();
+        try {
+            return prefs.getLong(name, defaultValue);
+        } catch (ClassCastException e) { // stored as a String
+            Long value = prefs.contains(name) ? get(key) : null;
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    public boolean getBoolean(BooleanKey key) {
+        return getBoolean(key, false);
+    }
+
+    public boolean getBoolean(BooleanKey key, boolean defaultValue) {
+        String name = key.getName();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? defaultValue : (Boolean) pending.value;
+        }
+        PrefsStore prefs = getPrefs();
+        try {
+            return prefs.getBoolean(name, defaultValue);
+        } catch (ClassCastException e) { // stored as a String
+            Boolean value = prefs.contains(name) ? get(key) : null;
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    public float getFloat(FloatKey key) {
+        return getFloat(key, 0f);
+    }
+
+    public float getFloat(FloatKey key, float defaultValue) {
+        String name = key.getName();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? defaultValue : ((Number) pending.value).floatValue();
+        }
+        PrefsStore prefs = getPrefs();
+        try {
+            return prefs.getFloat(name, defaultValue);
+        } catch (ClassCastException e) { // stored as a String
+            Float value = prefs.contains(name) ? get(key) : null;
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    /**
+     * Reads a double value without boxing it. Note that doubles are stored as floats.
+     */
+    public double getDouble(DoubleKey key) {
+        return getDouble(key, 0d);
+    }
+
+    public double getDouble(DoubleKey key, double defaultValue) {
+        String name = key.getName();
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            return pending.remove || pending.value == null ? defaultValue : ((Number) pending.value).doubleValue();
+        }
+        PrefsStore prefs = getPrefs();
+        try {
+            return containsName(name) ? prefs.getFloat(name, 0f) : defaultValue;
+        } catch (ClassCastException e) { // stored as a String
+            Double value = get(key);
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    /**
+     * Writes an int value without boxing it. Any boxed value for this key in the in-memory
+     * cache is dropped. Listeners, if any, still receive a boxed value.
+     */
+    public void putInt(IntKey key, int value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        String name = key.getName();
+        invalidate(name);
+        added(name);
+        if (writeBehind == null) {
+            if (!apply(editor().putInt(name, value))) return;
         } else {
-            String json = gson.toJson(value);
-            editor.putString(name, json);
+            putPending(name, codec(key), value, false, null);
         }
+        if (!listeners.isEmpty()) listeners.onPut(key, value); // avoids boxing the value
+    }
+
+    public void putLong(LongKey key, long value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        String name = key.getName();
+        invalidate(name);
+        added(name);
+        if (writeBehind == null) {
+            if (!apply(editor().putLong(name, value))) return;
+        } else {
+            putPending(name, codec(key), value, false, null);
+        }
+        if (!listeners.isEmpty()) listeners.onPut(key, value); // avoids boxing the value
+    }
+
+    public void putBoolean(BooleanKey key, boolean value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        String name = key.getName();
+        invalidate(name);
+        added(name);
+        if (writeBehind == null) {
+            if (!apply(editor().putBoolean(name, value))) return;
+        } else {
+            putPending(name, codec(key), value, false, null);
+        }
+        if (!listeners.isEmpty()) listeners.onPut(key, value); // avoids boxing the value
+    }
+
+    public void putFloat(FloatKey key, float value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        String name = key.getName();
+        invalidate(name);
+        added(name);
+        if (writeBehind == null) {
+            if (!apply(editor().putFloat(name, value))) return;
+        } else {
+            putPending(name, codec(key), value, false, null);
+        }
+        if (!listeners.isEmpty()) listeners.onPut(key, value); // avoids boxing the value
+    }
+
+    public void putDouble(DoubleKey key, double value) {
+        if (key.skipsUnchangedWrites() && isUnchanged(key, value)) return;
+        if (key.hasTags() || changeTracker != null) registry.register(key);
+        String name = key.getName();
+        invalidate(name);
+        added(name);
+        if (writeBehind == null) {
+            if (!apply(editor().putFloat(name, (float) value))) return;
+        } else {
+            putPending(name, codec(key), value, false, null);
+        }
+        if (!listeners.isEmpty()) listeners.onPut(key, value); // avoids boxing the value
+    }
+
+    /**
+     * @return the number of puts that were skipped since the value was unchanged.
+     *   See {@link TypedKey#withSkipUnchangedWrites(boolean)}.
+     */
+    public long getSkippedWriteCount() {
+        return skippedWrites.get();
+    }
+
+    /** Counts the put as skipped if it returns true */
+    private <T> boolean isUnchanged(TypedKey<T> key, T value) {
+        String name = key.getName();
+        boolean unchanged;
+        WriteBehind.Pending<?> pending = pending(name);
+        if (pending != null) {
+            unchanged = pending.remove || pending.value == null ? value == null : pending.value.equals(value);
+        } else if (value == null) {
+            unchanged = !containsName(name);
+        } else {
+            Object cached = key.isCacheableInMemory() ? cache.get(name) : null;
+            unchanged = cached != null ? cached.equals(value) : codec(key).isStored(getPrefs(), name, value);
+        }
+        if (unchanged) skippedWrites.incrementAndGet();
+        return unchanged;
+    }
+
+    /** @return false if the store failed to write the value */
+    private <T> boolean putInternal(String name, Codec<T> codec, T value, boolean cacheable, Weigher<? super T> weigher) {
+        if (writeBehind != null) {
+            putPending(name, codec, value, cacheable, weigher);
+            return true;
+        }
+        Editor editor = editor();
+        stagePut(editor, name, codec, value, cacheable, weigher);
+        return apply(editor);
+    }
+
+    /**
+     * Applies the changes, which the store may fail to write. The store then reports them,
+     * on this thread, to the listener registered by the constructor, which reverts the
+     * cache and the key index to what is stored, and notifies listeners of it.
+     *
+     * @return false if the changes were lost, in which case listeners must not be
+     *   notified of them
+     */
+    private boolean apply(Editor editor) {
+        if (writeFailed == null) {
+            editor.apply();
+            return true;
+        }
+        writeFailed.remove();
         editor.apply();
+        if (writeFailed.get() == null) return true;
+        writeFailed.remove();
+        return false;
+    }
+
+    private <T> void putPending(String name, Codec<T> codec, T value, boolean cacheable, Weigher<? super T> weigher) {
+        WriteBehind wb = writeBehind;
+        if (wb == null) { // disabled concurrently
+            putInternal(name, codec, value, cacheable, weigher);
+        } else {
+            if (value == null) { // a null value removes the key
+                removed(name);
+            } else {
+                added(name);
+            }
+            wb.put(name, new WriteBehind.Pending<>(codec, value, false, cacheable, weigher));
+        }
+    }
+
+    private <T> void removePending(String name, Codec<T> codec) {
+        WriteBehind wb = writeBehind;
+        if (wb == null) {
+            editor().remove(name).apply();
+        } else {
+            wb.put(name, new WriteBehind.Pending<>(codec, null, true, false, null));
+        }
+        removed(name);
+    }
+
+    /** Writes changes accumulated in write-behind mode with a single editor */
+    void writePending(List<Map.Entry<String, WriteBehind.Pending<?>>> changes) {
+        Editor editor = editor();
+        for (Map.Entry<String, WriteBehind.Pending<?>> change : changes) {
+            stagePending(editor, change.getKey(), change.getValue());
+        }
+        editor.apply();
+    }
+
+    private <T> void stagePending(Editor editor, String name, WriteBehind.Pending<T> pending) {
+        if (pending.remove) {
+            editor.remove(name);
+        } else {
+            stagePut(editor, name, pending.codec, pending.value, pending.cacheable, pending.weigher);
+        }
+    }
+
+    private <T> void stagePut(Editor editor, String name, Codec<T> codec, T value, boolean cacheable, Weigher<? super T> weigher) {
+        modCount.incrementAndGet();
+        int weight = codec.write(editor, name, value);
+        if (cacheable) {
+            if (value == null) {
+                cache.remove(name);
+            } else {
+                cache.put(name, value, weigher == null ? weight : weigher.weigh(value));
+            }
+        }
+        if (value == null) { // a null value removes the key
+            removed(name);
+        } else {
+            added(name);
+        }
+    }
+
+    /**
+     * Starts a batch of puts and removes that are written with a single
+     * {@link SharedPreferences.Editor} when {@link Batch#apply()} is called. On Android,
+     * each apply rewrites the prefs file, so prefer a batch when changing many keys at once.
+     *
+     * @return a new batch. A batch is not thread-safe.
+     */
+    public Batch edit() {
+        return new Batch();
+    }
+
+    /**
+     * A set of puts and removes applied together. If a key is changed more than once in a
+     * batch, only the last change is applied. Listeners are notified once per changed key
+     * after the batch has been applied.
+     */
+    public final class Batch {
+        private final Map<String, BatchOp<?>> ops = new LinkedHashMap<>();
+
+        private Batch() {}
+
+        public <T> Batch put(TypedKey<T> key, T value) {
+            if (key.hasTags() || changeTracker != null) registry.register(key);
+            ops.put(key.getName(), new BatchOp<>(key, value, false));
+            return this;
+        }
+
+        public <T> Batch remove(TypedKey<T> key) {
+            ops.put(key.getName(), new BatchOp<>(key, null, true));
+            return this;
+        }
+
+        /**
+         * @return the number of keys changed by this batch
+         */
+        public int size() {
+            return ops.size();
+        }
+
+        public void apply() {
+            applyBatch(ops.values());
+            ops.clear();
+        }
+    }
+
+    private static final class BatchOp<T> {
+        final TypedKey<T> key;
+        final T value;
+        final boolean remove;
+        boolean changed = true;
+        BatchOp(TypedKey<T> key, T value, boolean remove) {
+            this.key = key;
+            this.value = value;
+            this.remove = remove;
+        }
+    }
+
+    private void applyBatch(Collection<BatchOp<?>> ops) {
+        if (ops.isEmpty()) return;
+        if (writeBehind == null) {
+            Editor editor = editor();
+            for (BatchOp<?> op : ops) {
+                stage(editor, op);
+            }
+            if (!apply(editor)) return;
+        } else { // the batch will be written with the next flush
+            for (BatchOp<?> op : ops) {
+                stagePending(op);
+            }
+        }
+        if (!listeners.isEmpty()) {
+            for (BatchOp<?> op : ops) {
+                if (op.changed) notifyListeners(op);
+            }
+        }
+    }
+
+    private <T> void stage(Editor editor, BatchOp<T> op) {
+        TypedKey<T> key = op.key;
+        String name = key.getName();
+        if (op.remove) {
+            op.changed = cache.get(name) != null || containsName(name);
+            if (op.changed) {
+                invalidate(name);
+                editor.remove(name);
+                removed(name);
+            }
+        } else {
+            op.changed = !key.skipsUnchangedWrites() || !isUnchanged(key, op.value);
+            if (op.changed) stagePut(editor, name, codec(key), op.value, key.isCacheableInMemory(), key.getWeigher());
+        }
+    }
+
+    private <T> void stagePending(BatchOp<T> op) {
+        TypedKey<T> key = op.key;
+        String name = key.getName();
+        if (op.remove) {
+            op.changed = cache.get(name) != null || containsName(name);
+            if (op.changed) {
+                invalidate(name);
+                removePending(name, codec(key));
+            }
+        } else {
+            op.changed = !key.skipsUnchangedWrites() || !isUnchanged(key, op.value);
+            if (op.changed) putPending(name, codec(key), op.value, key.isCacheableInMemory(), key.getWeigher());
+        }
+    }
+
+    private <T> void notifyListeners(BatchOp<T> op) {
+        if (op.remove) {
+            listeners.onRemove(op.key);
+        } else {
+            listeners.onPut(op.key, op.value);
+        }
     }
 
     /**
@@ -241,15 +1368,35 @@ public class Prefs {
      * @param key the key that was previously bound as an instance. If the key was not bound previously, nothing is done
      */
     public <T> void remove(TypedKey<T> key) {
+        String keyName = key.getName();
+        boolean removed;
+        if (isCounter(key)) {
+            synchronized (keyLock(keyName)) { // see put(TypedKey, Object)
+                synchronized (counters) {
+                    counters.remove(keyName);
+                    removed = removeKey(key);
+                }
+            }
+        } else {
+            removed = removeKey(key);
+        }
+        if (removed) listeners.onRemove(key);
+    }
+
+    /** @return true if the key was present, and its removal was not lost */
+    private <T> boolean removeKey(TypedKey<T> key) {
         String keyName = key.getName();
         boolean wasPresent = cache.get(keyName) != null;
-        SharedPreferences prefs = getPrefs();
-        wasPresent = wasPresent || prefs.contains(keyName);
+        wasPresent = wasPresent || containsName(keyName);
         if (wasPresent) {
-            cache.remove(keyName);
-            prefs.edit().remove(keyName).apply();
-            for (EventListener listener : listeners) listener.onRemove(key);
+            invalidate(keyName);
+            if (writeBehind == null) {
+                removed(keyName); // before the apply, which reverts it if the remove is lost
+                return apply(editor().remove(keyName));
+            }
+            removePending(keyName, codec(key));
         }
+        return wasPresent;
     }
 
     /**
@@ -259,22 +1406,84 @@ public class Prefs {
      */
     public <T> void remove(String keyName, Class<T> keyClass) {
         boolean wasPresent = cache.get(keyName) != null;
-        SharedPreferences prefs = getPrefs();
-        wasPresent = wasPresent || prefs.contains(keyName);
+        wasPresent = wasPresent || containsName(keyName);
         if (wasPresent) {
-            cache.remove(keyName);
-            prefs.edit().remove(keyName).apply();
+            invalidate(keyName);
+            if (writeBehind == null) {
+                removed(keyName);
+                if (!apply(editor().remove(keyName))) return;
+            } else {
+                removePending(keyName, this.<T>codec(keyClass));
+            }
             if (!listeners.isEmpty()) {
                 TypedKey<T> key = new TypedKey<>(keyName, keyClass, false);
-                for (EventListener listener : listeners) listener.onRemove(key);
+                listeners.onRemove(key);
             }
         }
     }
 
+    /** Drops the cached value of a key that is about to be written */
+    private void invalidate(String name) {
+        modCount.incrementAndGet();
+        cache.remove(name);
+    }
+
+    /** Bookkeeping for a key that was just removed */
+    private void removed(String name) {
+        keyIndex.remove(name);
+        if (!asyncGets.isEmpty()) asyncGets.remove(name);
+    }
+
+    /**
+     * Called for a change to the prefs file that was made by others
+     *
+     * @param name the changed key, or null if the file was cleared
+     */
+    void externalChange(String name) {
+        if (name == null) {
+            asyncGets.clear();
+            modCount.incrementAndGet();
+            cache.clear();
+            keyIndex.reset();
+            return;
+        }
+        invalidate(name);
+        PrefsStore prefs = getPrefs();
+        boolean present = prefs.contains(name);
+        if (present) {
+            added(name);
+        } else {
+            removed(name);
+        }
+        if (listeners.isEmpty()) return;
+        TypedKey<?> key = registry.key(name);
+        if (key == null) key = new TypedKey<>(name, Object.class, prefsFileName, false);
+        if (present) {
+            notifyExternalPut(prefs, key);
+        } else {
+            listeners.onRemove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void notifyExternalPut(PrefsStore prefs, TypedKey<T> key) {
+        T value = key.getTypeOfValue() == Object.class
+                ? (T) prefs.getAll().get(key.getName())
+                : getInternal(key.getName(), codec(key));
+        listeners.onPut(key, value);
+    }
+
     public synchronized void clear() {
-        cache.evictAll();
-        SharedPreferences prefs = getPrefs();
-        prefs.edit().clear().apply();
+        WriteBehind wb = writeBehind;
+        if (wb != null) wb.discardAll();
+        asyncGets.clear();
+        preloads.clear();
+        counters.clear();
+        modCount.incrementAndGet();
+        cache.clear();
+        PrefsStore prefs = getPrefs();
+        editor(prefs).clear().apply();
+        keyIndex.clear();
     }
 
     static void requireNonNull(Object obj) {
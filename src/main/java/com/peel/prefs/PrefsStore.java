@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The storage that a {@link Prefs} reads from and writes to. The default store,
+ * {@link SharedPreferencesStore}, is backed by Android's {@code SharedPreferences}; other
+ * implementations can store values differently, or in memory for tests and benchmarks.
+ *
+ * <p>Implementations must be thread-safe. The typed getters throw a
+ * {@link ClassCastException} if the value was stored with a different type, as
+ * {@code SharedPreferences} does. The getters must see every change that was applied
+ * through an {@link Editor} of this store, even if it has not reached disk yet.
+ *
+ * @author Inderjeet Singh
+ */
+public interface PrefsStore {
+
+    boolean contains(String name);
+
+    /**
+     * @return a map of all names to values, which must not be modified. This may copy the
+     *   whole store, so {@link Prefs} calls it rarely.
+     */
+    Map<String, ?> getAll();
+
+    String getString(String name, String defValue);
+
+    Set<String> getStringSet(String name, Set<String> defValues);
+
+    int getInt(String name, int defValue);
+
+    long getLong(String name, long defValue);
+
+    float getFloat(String name, float defValue);
+
+    boolean getBoolean(String name, boolean defValue);
+
+    /**
+     * @return the bytes stored by {@link Editor#putBytes(String, byte[])}, or null if there are none
+     */
+    byte[] getBytes(String name);
+
+    /**
+     * @return a new editor, whose changes are made visible together on {@link Editor#apply()}
+     *   or {@link Editor#commit()}
+     */
+    Editor edit();
+
+    /**
+     * Registers a listener for changes to the store. Stores whose content can only be
+     * changed through {@link Prefs} may ignore listeners.
+     */
+    void addChangeListener(ChangeListener listener);
+
+    void removeChangeListener(ChangeListener listener);
+
+    /**
+     * Re-reads the store from disk. Called in {@link Prefs#enableMultiProcess(java.io.File)
+     * multi-process mode} after another process has written to it.
+     */
+    void reload();
+
+    /**
+     * A batch of changes to a {@link PrefsStore}. Changes are applied in the order: first
+     * {@link #clear()}, then all puts and removes.
+     */
+    interface Editor {
+        Editor putString(String name, String value);
+        Editor putStringSet(String name, Set<String> values);
+        Editor putInt(String name, int value);
+        Editor putLong(String name, long value);
+        Editor putFloat(String name, float value);
+        Editor putBoolean(String name, boolean value);
+        Editor putBytes(String name, byte[] value);
+        Editor remove(String name);
+        Editor clear();
+
+        /**
+         * Makes the changes visible immediately and writes them to disk, possibly asynchronously
+         */
+        void apply();
+
+        /**
+         * Makes the changes visible and writes them to disk before returning
+         *
+         * @return true if the changes were written
+         */
+        boolean commit();
+    }
+
+    /**
+     * Implemented by stores that can stream String values, so that large values, such as
+     * the JSON of a long list, need not be held in memory as a whole String. Values are
+     * also written as a stream if the editor of the store implements {@link StreamingEditor}.
+     */
+    interface Streaming {
+        /**
+         * @return a reader for the String value, or null if there is none. The caller must
+         *   close it.
+         * @throws ClassCastException if the value was stored with a different type
+         */
+        Reader getStringReader(String name);
+
+        /**
+         * @return the number of bytes taken by the String value in its UTF-8 form, or -1
+         *   if there is none
+         */
+        int getStringSize(String name);
+    }
+
+    /**
+     * An {@link Editor} that can stream String values, see {@link Streaming}
+     */
+    interface StreamingEditor extends Editor {
+        /**
+         * Puts a String value that is written by the source. The source is called before
+         * this method returns.
+         */
+        StreamingEditor putString(String name, StringSource source) throws IOException;
+    }
+
+    /**
+     * Writes a String value to a {@link StreamingEditor}
+     */
+    interface StringSource {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /**
+     * Listens for changes to a {@link PrefsStore}
+     */
+    interface ChangeListener {
+        /**
+         * @param name the changed key, or null if the store was cleared
+         */
+        void onChanged(PrefsStore store, String name);
+    }
+
+    /**
+     * A {@link ChangeListener} that is also told about applied changes that the store failed
+     * to write, and that are therefore not visible, so that it can drop what it holds in
+     * memory for them. {@link Editor#commit()} returns false in that case.
+     */
+    interface WriteFailureListener extends ChangeListener {
+        /**
+         * @param name the key whose change was lost, or null if a clear was lost
+         */
+        void onWriteFailed(PrefsStore store, String name);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads one key into the cache as part of a preload. The task is run by the preload in
+ * the background, or by the first caller who needs the key before the preload gets to it,
+ * so that callers wait only for the key they need.
+ *
+ * @author Inderjeet Singh
+ */
+final class PreloadTask extends FutureTask<Void> {
+
+    private final String name;
+    private final ConcurrentMap<String, PreloadTask> pending;
+
+    PreloadTask(String name, Runnable read, ConcurrentMap<String, PreloadTask> pending) {
+        super(read, null);
+        this.name = name;
+        this.pending = pending;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Runs the read on the calling thread if it has not started yet, otherwise waits for it
+     * to finish. A failed read is ignored; the caller reads the key itself.
+     */
+    void await() {
+        run();
+        try {
+            get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    @Override
+    protected void done() {
+        pending.remove(name, this);
+    }
+}
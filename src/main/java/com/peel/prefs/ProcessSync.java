@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.peel.prefs.PrefsStore.Editor;
+
+/**
+ * Tells {@link Prefs} which keys of its prefs file were changed by other processes. Every
+ * process that writes to the file bumps a generation counter in a small memory-mapped stamp
+ * file and appends the hash of each changed key name to a change log, a ring buffer in the
+ * same file. A reader compares the counter with the last generation it has seen, which is
+ * a single memory read, and reads the log only if the counter has moved.
+ *
+ * <p>Layout: the current generation (a long), followed by {@link #SLOTS} slots of the
+ * generation (long), the name hash (int) and flags (int) of a change.
+ *
+ * @author Inderjeet Singh
+ */
+final class ProcessSync implements Closeable {
+
+    static final int SLOTS = 128;
+    private static final int SLOT_SIZE = 16;
+    private static final int HEADER_SIZE = 8;
+    private static final int SIZE = HEADER_SIZE + SLOTS * SLOT_SIZE;
+    /** The file was cleared, so every key has changed */
+    private static final int INVALIDATE_ALL = 1;
+
+    private final Prefs prefs;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer stamp;
+    private volatile long seen; // the last generation whose changes are reflected in memory
+
+    ProcessSync(Prefs prefs, File stampFile) throws IOException {
+        this.prefs = prefs;
+        this.file = new RandomAccessFile(stampFile, "rw");
+        try {
+            this.channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                if (file.length() < SIZE) file.setLength(SIZE); // zero filled
+            } finally {
+                lock.release();
+            }
+            this.stamp = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        this.seen = stamp.getLong(0);
+    }
+
+    /**
+     * Invalidates what other processes have changed since the last check. The check itself
+     * is a single read of the mapped counter.
+     */
+    void check() {
+        if (stamp.getLong(0) == seen) return;
+        Set<Integer> nameHashes = new HashSet<>();
+        boolean all;
+        synchronized (this) {
+            FileLock lock = lock(true);
+            try {
+                long current = stamp.getLong(0);
+                long last = seen;
+                if (current == last) return; // checked by another thread
+                all = current < last || current - last > SLOTS; // the file was reset, or the log overflowed
+                for (long generation = last + 1; !all && generation <= current; ++generation) {
+                    int offset = offset(generation);
+                    if (stamp.getLong(offset) != generation || (stamp.getInt(offset + 12) & INVALIDATE_ALL) != 0) {
+                        all = true;
+                    } else {
+                        nameHashes.add(stamp.getInt(offset + 8));
+                    }
+                }
+                seen = current;
+            } finally {
+                release(lock);
+            }
+        }
+        prefs.changedByOtherProcess(all ? null : nameHashes);
+    }
+
+    /** Records changes that were just written to the prefs file */
+    private synchronized void written(List<String> names, boolean invalidateAll) {
+        FileLock lock = lock(false);
+        try {
+            long current = stamp.getLong(0);
+            boolean upToDate = current == seen;
+            if (invalidateAll) {
+                put(++current, 0, INVALIDATE_ALL);
+            } else {
+                for (String name : names) put(++current, name.hashCode(), 0);
+            }
+            stamp.putLong(0, current); // publish after the log entries
+            if (upToDate) seen = current; // our own changes are already in memory
+        } finally {
+            release(lock);
+        }
+    }
+
+    private void put(long generation, int nameHash, int flags) {
+        int offset = offset(generation);
+        stamp.putLong(offset, generation);
+        stamp.putInt(offset + 8, nameHash);
+        stamp.putInt(offset + 12, flags);
+    }
+
+    private static int offset(long generation) {
+        return HEADER_SIZE + (int) (generation % SLOTS) * SLOT_SIZE;
+    }
+
+    private FileLock lock(boolean shared) {
+        try {
+            return channel.lock(0, SIZE, shared);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException ignored) { // the lock is released when the channel is closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    Editor wrap(Editor editor) {
+        return new SyncEditor(editor);
+    }
+
+    /**
+     * Commits instead of applying, so that the file is on disk before other processes
+     * are told about the change
+     */
+    private final class SyncEditor implements Editor {
+        private final Editor editor;
+        private final List<String> names = new ArrayList<>();
+        private boolean invalidateAll;
+
+        SyncEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override public Editor putString(String key, String value) {
+            names.add(key);
+            editor.putString(key, value);
+            return this;
+        }
+        @Override public Editor putStringSet(String key, Set<String> values) {
+            names.add(key);
+            editor.putStringSet(key, values);
+            return this;
+        }
+        @Override public Editor putInt(String key, int value) {
+            names.add(key);
+            editor.putInt(key, value);
+            return this;
+        }
+        @Override public Editor putLong(String key, long value) {
+            names.add(key);
+            editor.putLong(key, value);
+            return this;
+        }
+        @Override public Editor putFloat(String key, float value) {
+            names.add(key);
+            editor.putFloat(key, value);
+            return this;
+        }
+        @Override public Editor putBoolean(String key, boolean value) {
+            names.add(key);
+            editor.putBoolean(key, value);
+            return this;
+        }
+        @Override public Editor putBytes(String key, byte[] value) {
+            names.add(key);
+            editor.putBytes(key, value);
+            return this;
+        }
+        @Override public Editor remove(String key) {
+            names.add(key); // found in the key index of other processes, which still has it
+            editor.remove(key);
+            return this;
+        }
+        @Override public Editor clear() {
+            invalidateAll = true;
+            editor.clear();
+            return this;
+        }
+        @Override public boolean commit() {
+            boolean committed = editor.commit();
+            if (invalidateAll || !names.isEmpty()) written(names, invalidateAll);
+            names.clear();
+            invalidateAll = false;
+            return committed;
+        }
+        @Override public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+
+/**
+ * The default {@link PrefsStore}, backed by Android {@link SharedPreferences}. Bytes are
+ * stored as Base64 strings.
+ *
+ * @author Inderjeet Singh
+ */
+public final class SharedPreferencesStore implements PrefsStore {
+
+    private final Context context;
+    private final String prefsFileName;
+    private final SharedPreferences prefs; // null if looked up from the context on each access
+    // SharedPreferences holds its listeners weakly, so the adapters are held here
+    private final ConcurrentMap<ChangeListener, OnSharedPreferenceChangeListener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * @param prefsFileName the name of the prefs file, or null for the default prefs file
+     */
+    public SharedPreferencesStore(Context context, String prefsFileName) {
+        Prefs.requireNonNull(context);
+        this.context = context;
+        this.prefsFileName = prefsFileName;
+        this.prefs = null;
+    }
+
+    /**
+     * A store for a {@link SharedPreferences} instance that was obtained elsewhere. Such a
+     * store can not be {@link #reload() reloaded} from disk.
+     */
+    public SharedPreferencesStore(SharedPreferences prefs) {
+        Prefs.requireNonNull(prefs);
+        this.context = null;
+        this.prefsFileName = null;
+        this.prefs = prefs;
+    }
+
+    private SharedPreferences prefs() {
+        if (prefs != null) return prefs;
+        return prefsFileName == null
+                ? PreferenceManager.getDefaultSharedPreferences(context)
+                : context.getSharedPreferences(prefsFileName, Context.MODE_PRIVATE);
+    }
+
+    @Override public boolean contains(String name) {
+        return prefs().contains(name);
+    }
+
+    @Override public Map<String, ?> getAll() {
+        return prefs().getAll();
+    }
+
+    @Override public String getString(String name, String defValue) {
+        return prefs().getString(name, defValue);
+    }
+
+    @Override public Set<String> getStringSet(String name, Set<String> defValues) {
+        return prefs().getStringSet(name, defValues);
+    }
+
+    @Override public int getInt(String name, int defValue) {
+        return prefs().getInt(name, defValue);
+    }
+
+    @Override public long getLong(String name, long defValue) {
+        return prefs().getLong(name, defValue);
+    }
+
+    @Override public float getFloat(String name, float defValue) {
+        return prefs().getFloat(name, defValue);
+    }
+
+    @Override public boolean getBoolean(String name, boolean defValue) {
+        return prefs().getBoolean(name, defValue);
+    }
+
+    @Override public byte[] getBytes(String name) {
+        String str = prefs().getString(name, null);
+        return str == null ? null : Base64.decode(str);
+    }
+
+    @Override public PrefsStore.Editor edit() {
+        return new Editor(prefs().edit());
+    }
+
+    @Override public void addChangeListener(final ChangeListener listener) {
+        OnSharedPreferenceChangeListener adapter = new OnSharedPreferenceChangeListener() {
+            @Override public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String name) {
+                listener.onChanged(SharedPreferencesStore.this, name);
+            }
+        };
+        if (listeners.putIfAbsent(listener, adapter) == null) {
+            prefs().registerOnSharedPreferenceChangeListener(adapter);
+        }
+    }
+
+    @Override public void removeChangeListener(ChangeListener listener) {
+        OnSharedPreferenceChangeListener adapter = listeners.remove(listener);
+        if (adapter != null) prefs().unregisterOnSharedPreferenceChangeListener(adapter);
+    }
+
+    /** Makes Android reload the prefs file from disk if it was changed by another process */
+    @Override public void reload() {
+        if (context == null) return;
+        String name = prefsFileName == null ? context.getPackageName() + "_preferences" : prefsFileName;
+        context.getSharedPreferences(name, Context.MODE_MULTI_PROCESS);
+    }
+
+    private static final class Editor implements PrefsStore.Editor {
+        private final SharedPreferences.Editor editor;
+
+        Editor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override public Editor putString(String name, String value) {
+            editor.putString(name, value);
+            return this;
+        }
+        @Override public Editor putStringSet(String name, Set<String> values) {
+            editor.putStringSet(name, values);
+            return this;
+        }
+        @Override public Editor putInt(String name, int value) {
+            editor.putInt(name, value);
+            return this;
+        }
+        @Override public Editor putLong(String name, long value) {
+            editor.putLong(name, value);
+            return this;
+        }
+        @Override public Editor putFloat(String name, float value) {
+            editor.putFloat(name, value);
+            return this;
+        }
+        @Override public Editor putBoolean(String name, boolean value) {
+            editor.putBoolean(name, value);
+            return this;
+        }
+        @Override public Editor putBytes(String name, byte[] value) {
+            editor.putString(name, value == null ? null : Base64.encode(value));
+            return this;
+        }
+        @Override public Editor remove(String name) {
+            editor.remove(name);
+            return this;
+        }
+        @Override public Editor clear() {
+            editor.clear();
+            return this;
+        }
+        @Override public void apply() {
+            editor.apply();
+        }
+        @Override public boolean commit() {
+            return editor.commit();
+        }
+    }
+}
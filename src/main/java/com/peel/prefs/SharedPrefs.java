@@ -15,9 +15,17 @@
  */
 package com.peel.prefs;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 import com.peel.prefs.Prefs.EventListener;
@@ -32,6 +40,21 @@ import android.content.Context;
  */
 public class SharedPrefs {
 
+    /**
+     * Receives startup telemetry for each prefs file loaded by
+     * {@link SharedPrefs#init(Executor, LoadListener, Prefs, Prefs...)}
+     */
+    public interface LoadListener {
+        /**
+         * Invoked on the thread that loaded the file
+         *
+         * @param prefsFileName the name of the prefs file, null for the default prefs
+         * @param loadTimeMillis how long the file took to load
+         * @param keyCount the number of keys in the file
+         */
+        void onLoad(String prefsFileName, long loadTimeMillis, int keyCount);
+    }
+
     private static Context context;
     private static Prefs defaultPrefs;
     private static final Map<String, Prefs> namedPrefs = new HashMap<>();
@@ -77,6 +100,58 @@ public class SharedPrefs {
         }
     }
 
+    /**
+     * Same as {@link #init(Prefs, Prefs...)}, and then starts a {@link #preload(Iterable, Executor) preload}
+     * of the specified keys.
+     *
+     * @param preloadKeys the keys to read into the cache in the background, such as large
+     *   JSON values read during app launch
+     * @param executor the executor for the preload. Each prefs file is preloaded by its own
+     *   task, so an executor with more than one thread loads the files in parallel.
+     */
+    public static void init(Iterable<? extends TypedKey<?>> preloadKeys, Executor executor, Prefs defaultPrefs, Prefs... prefsList) {
+        init(defaultPrefs, prefsList);
+        preload(preloadKeys, executor);
+    }
+
+    /**
+     * Same as {@link #init(Prefs, Prefs...)}, and then loads all prefs files concurrently on
+     * the executor, one task per file, instead of loading each file on first access.
+     *
+     * @param executor the executor on which files are loaded, typically a small bounded pool
+     * @param listener if not null, receives the load time and key count of each file
+     * @return a future that completes once all files have been loaded
+     */
+    public static Future<Void> init(Executor executor, final LoadListener listener, Prefs defaultPrefs, Prefs... prefsList) {
+        init(defaultPrefs, prefsList);
+        List<FutureTask<Void>> loads = new ArrayList<>();
+        for (final Prefs prefs : allPrefs()) {
+            FutureTask<Void> load = new FutureTask<>(new Runnable() {
+                @Override public void run() {
+                    long start = System.nanoTime();
+                    int keyCount = prefs.load();
+                    long loadTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (listener != null) listener.onLoad(prefs.getPrefsFileName(), loadTimeMillis, keyCount);
+                }
+            }, null);
+            executor.execute(load);
+            loads.add(load);
+        }
+        return new AllOf(loads);
+    }
+
+    /**
+     * Same as {@link #init(Prefs, Prefs...)}, and then preloads the keys that were read
+     * during the last startup and records the keys read during this one.
+     *
+     * @return a future that completes once the keys recorded on the last startup have
+     *   been preloaded
+     */
+    public static Future<Void> init(StartupProfile profile, Prefs defaultPrefs, Prefs... prefsList) {
+        init(defaultPrefs, prefsList);
+        return profile.start(allPrefs());
+    }
+
     public synchronized static void addListener(EventListener listener) {
         defaultPrefs.addListener(listener);
         for (Prefs prefs : namedPrefs.values()) {
@@ -91,6 +166,29 @@ public class SharedPrefs {
         }
     }
 
+    public static void addListener(TypedKey<?> key, EventListener listener) {
+        prefs(key).addListener(key, listener);
+    }
+
+    public static void removeListener(TypedKey<?> key, EventListener listener) {
+        prefs(key).removeListener(key, listener);
+    }
+
+    /**
+     * Registers a listener for changes to keys with this tag, in all prefs files
+     */
+    public static void addListener(String tag, EventListener listener) {
+        for (Prefs prefs : allPrefs()) {
+            prefs.addListener(tag, listener);
+        }
+    }
+
+    public static void removeListener(String tag, EventListener listener) {
+        for (Prefs prefs : allPrefs()) {
+            prefs.removeListener(tag, listener);
+        }
+    }
+
     public static Context context() {
         return context;
     }
@@ -111,10 +209,37 @@ public class SharedPrefs {
         return defaultPrefs.get(keyName, keyClass, defaultValue);
     }
 
+    public static <T> Future<T> getAsync(TypedKey<T> key, Executor executor) {
+        return prefs(key).getAsync(key, executor);
+    }
+
+    public static <T> void getAsync(TypedKey<T> key, Executor executor, Prefs.Callback<? super T> callback) {
+        prefs(key).getAsync(key, executor, callback);
+    }
+
+    public static <T> Future<Void> putAsync(TypedKey<T> key, T value, Executor executor) {
+        return prefs(key).putAsync(key, value, executor);
+    }
+
     public Set<String> keySet(String prefName) {
         return prefs(prefName).keySet();
     }
 
+    /**
+     * See {@link Prefs#keys()}
+     */
+    public static Set<String> keys(String prefName) {
+        return prefs(prefName).keys();
+    }
+
+    public static int size(String prefName) {
+        return prefs(prefName).size();
+    }
+
+    public static void forEachKey(String prefName, Prefs.KeyVisitor visitor) {
+        prefs(prefName).forEachKey(visitor);
+    }
+
     public static <T> boolean contains(TypedKey<T> key) {
         return prefs(key).contains(key);
     }
@@ -139,6 +264,87 @@ public class SharedPrefs {
         defaultPrefs.putIfAbsent(keyName, keyClass, value);
     }
 
+    public static int getInt(IntKey key) {
+        return prefs(key).getInt(key);
+    }
+
+    public static int getInt(IntKey key, int defaultValue) {
+        return prefs(key).getInt(key, defaultValue);
+    }
+
+    public static void putInt(IntKey key, int value) {
+        prefs(key).putInt(key, value);
+    }
+
+    public static long getLong(LongKey key) {
+        return prefs(key).getLong(key);
+    }
+
+    public static long getLong(LongKey key, long defaultValue) {
+        return prefs(key).getLong(key, defaultValue);
+    }
+
+    public static void putLong(LongKey key, long value) {
+        prefs(key).putLong(key, value);
+    }
+
+    public static boolean getBoolean(BooleanKey key) {
+        return prefs(key).getBoolean(key);
+    }
+
+    public static boolean getBoolean(BooleanKey key, boolean defaultValue) {
+        return prefs(key).getBoolean(key, defaultValue);
+    }
+
+    public static void putBoolean(BooleanKey key, boolean value) {
+        prefs(key).putBoolean(key, value);
+    }
+
+    public static float getFloat(FloatKey key) {
+        return prefs(key).getFloat(key);
+    }
+
+    public static float getFloat(FloatKey key, float defaultValue) {
+        return prefs(key).getFloat(key, defaultValue);
+    }
+
+    public static void putFloat(FloatKey key, float value) {
+        prefs(key).putFloat(key, value);
+    }
+
+    public static double getDouble(DoubleKey key) {
+        return prefs(key).getDouble(key);
+    }
+
+    public static double getDouble(DoubleKey key, double defaultValue) {
+        return prefs(key).getDouble(key, defaultValue);
+    }
+
+    public static void putDouble(DoubleKey key, double value) {
+        prefs(key).putDouble(key, value);
+    }
+
+    public static void increment(CounterKey key) {
+        prefs(key).increment(key);
+    }
+
+    public static void add(CounterKey key, long delta) {
+        prefs(key).add(key, delta);
+    }
+
+    public static long getCount(CounterKey key) {
+        return prefs(key).getCount(key);
+    }
+
+    /**
+     * Writes pending changes and counters of all prefs files. See {@link Prefs#flush()}.
+     */
+    public static void flush() {
+        for (Prefs prefs : allPrefs()) {
+            prefs.flush();
+        }
+    }
+
     public static <T> void remove(TypedKey<T> key) {
         prefs(key).remove(key);
     }
@@ -147,6 +353,114 @@ public class SharedPrefs {
         defaultPrefs.remove(keyName, keyClass);
     }
 
+    /**
+     * Starts a batch of puts and removes. When applied, the changes are grouped by prefs file
+     * and each file is written with a single {@link android.content.SharedPreferences.Editor}.
+     *
+     * @return a new batch. A batch is not thread-safe.
+     */
+    public static Batch edit() {
+        return new Batch();
+    }
+
+    /**
+     * A set of puts and removes, possibly across prefs files, that are applied together.
+     * See {@link Prefs.Batch}.
+     */
+    public static final class Batch {
+        private final Map<Prefs, Prefs.Batch> batches = new LinkedHashMap<>();
+
+        private Batch() {}
+
+        private Prefs.Batch batch(TypedKey<?> key) {
+            Prefs prefs = prefs(key);
+            Prefs.Batch batch = batches.get(prefs);
+            if (batch == null) {
+                batch = prefs.edit();
+                batches.put(prefs, batch);
+            }
+            return batch;
+        }
+
+        public <T> Batch put(TypedKey<T> key, T value) {
+            batch(key).put(key, value);
+            return this;
+        }
+
+        public <T> Batch remove(TypedKey<T> key) {
+            batch(key).remove(key);
+            return this;
+        }
+
+        public void apply() {
+            for (Prefs.Batch batch : batches.values()) {
+                batch.apply();
+            }
+            batches.clear();
+        }
+    }
+
+    /**
+     * Registers each key with the prefs for its file. See {@link Prefs#register(TypedKey...)}.
+     */
+    public static void register(TypedKey<?>... keys) {
+        for (TypedKey<?> key : keys) {
+            prefs(key).register(key);
+        }
+    }
+
+    /**
+     * @return the values of the registered keys with this tag, across all prefs files
+     */
+    public static Map<TypedKey<?>, Object> getAll(String tag) {
+        Map<TypedKey<?>, Object> values = new LinkedHashMap<>();
+        for (Prefs prefs : allPrefs()) {
+            values.putAll(prefs.getAll(tag));
+        }
+        return values;
+    }
+
+    /**
+     * Removes the registered keys with this tag, with a single editor per prefs file
+     */
+    public static void removeAll(String tag) {
+        for (Prefs prefs : allPrefs()) {
+            prefs.removeAll(tag);
+        }
+    }
+
+    public static void preload(String tag) {
+        for (Prefs prefs : allPrefs()) {
+            prefs.preload(tag);
+        }
+    }
+
+    /**
+     * Preloads the keys with the prefs for their files. See {@link Prefs#preload(Iterable, Executor)}.
+     */
+    public static void preload(Iterable<? extends TypedKey<?>> keys, Executor executor) {
+        Map<Prefs, List<TypedKey<?>>> keysByPrefs = new LinkedHashMap<>();
+        for (TypedKey<?> key : keys) {
+            Prefs prefs = prefs(key);
+            List<TypedKey<?>> prefsKeys = keysByPrefs.get(prefs);
+            if (prefsKeys == null) {
+                prefsKeys = new ArrayList<>();
+                keysByPrefs.put(prefs, prefsKeys);
+            }
+            prefsKeys.add(key);
+        }
+        for (Map.Entry<Prefs, List<TypedKey<?>>> entry : keysByPrefs.entrySet()) {
+            entry.getKey().preload(entry.getValue(), executor);
+        }
+    }
+
+    private synchronized static Set<Prefs> allPrefs() {
+        Set<Prefs> all = new LinkedHashSet<>();
+        all.add(defaultPrefs);
+        all.addAll(namedPrefs.values());
+        return all;
+    }
+
     public static void clear(String prefsFileName) {
         prefs(prefsFileName).clear();
     }
@@ -184,6 +498,20 @@ public class SharedPrefs {
             }
         }
 
+        public static Future<Void> init(Executor executor, LoadListener listener, Prefs defaultPrefs, Prefs... prefsList) {
+            synchronized (SharedPrefs.class) {
+                reset();
+                return SharedPrefs.init(executor, listener, defaultPrefs, prefsList);
+            }
+        }
+
+        public static Future<Void> init(StartupProfile profile, Prefs defaultPrefs, Prefs... prefsList) {
+            synchronized (SharedPrefs.class) {
+                reset();
+                return SharedPrefs.init(profile, defaultPrefs, prefsList);
+            }
+        }
+
         private static void reset() {
             SharedPrefs.context = null;
             SharedPrefs.defaultPrefs = null;
@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static com.peel.prefs.StoreValues.BOOLEAN;
+import static com.peel.prefs.StoreValues.BYTES;
+import static com.peel.prefs.StoreValues.FLOAT;
+import static com.peel.prefs.StoreValues.INT;
+import static com.peel.prefs.StoreValues.LONG;
+import static com.peel.prefs.StoreValues.STRING;
+import static com.peel.prefs.StoreValues.STRING_SET;
+import static com.peel.prefs.StoreValues.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link PrefsStore} for large prefs files that are mostly read, such as downloaded
+ * configuration. The file is a snapshot of all keys, sorted by name, which is memory-mapped
+ * when the store is opened. A read does a binary search over the mapped file and decodes
+ * only the value of the key that was asked for, so opening the store neither parses the
+ * file nor holds its values on the heap.
+ *
+ * <p>Changes are kept in memory, where reads see them immediately, and are merged into a
+ * new snapshot on the write executor. Since every write rewrites the whole file, use this
+ * store only for files that change rarely. Create the initial file with
+ * {@link #write(File, Map)}, for example from the values of an existing
+ * {@code SharedPreferences}.
+ *
+ * <p>Layout: {@code [int magic][int count][int offset of each entry]}, followed by the
+ * entries, each {@code [short name length][name][byte type][int value length][value]}.
+ * Entries are sorted by the UTF-8 bytes of their names.
+ *
+ * <p>String values larger than {@value #STREAMING_THRESHOLD} bytes are streamed from the
+ * mapped file by {@link #getStringReader(String)}, see {@link PrefsStore.Streaming}.
+ *
+ * @author Inderjeet Singh
+ */
+public final class SnapshotStore implements PrefsStore, PrefsStore.Streaming, Closeable {
+
+    private static final int MAGIC = 0x50534e50; // "PSNP"
+    // Visible for testing only
+    static final int STREAMING_THRESHOLD = 16 * 1024;
+    private static final Object REMOVED = new Object();
+
+    private final File file;
+    private final Executor writeExecutor;
+    private volatile Snapshot snapshot;
+    private final ConcurrentMap<String, Object> changes = new ConcurrentHashMap<>(); // not yet in the snapshot
+    private volatile boolean cleared; // guarded by this for writes, whether the snapshot was cleared
+    private int clearCount; // guarded by this
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private final Runnable writeTask = new Runnable() {
+        @Override public void run() {
+            writeScheduled.set(false);
+            try {
+                writeChanges();
+            } catch (IOException ignored) { // retried after the next change
+            }
+        }
+    };
+
+    /**
+     * Opens the snapshot file. A missing file is treated as empty.
+     *
+     * @param writeExecutor the executor on which changes are written to the file
+     */
+    public SnapshotStore(File file, Executor writeExecutor) throws IOException {
+        Prefs.requireNonNull(file);
+        Prefs.requireNonNull(writeExecutor);
+        this.file = file;
+        this.writeExecutor = writeExecutor;
+        this.snapshot = Snapshot.open(file);
+    }
+
+    /**
+     * Writes a snapshot file with the specified values. The file is replaced atomically.
+     *
+     * @param values Strings, Sets of Strings, Integers, Longs, Floats, Booleans or byte
+     *   arrays, as returned by {@code SharedPreferences.getAll()}
+     */
+    public static void write(File file, Map<String, ?> values) throws IOException {
+        Map<byte[], Object> sorted = new TreeMap<>(NAME_ORDER);
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (entry.getValue() != null) sorted.put(entry.getKey().getBytes(UTF_8), entry.getValue());
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        boolean written = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 16 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(sorted.size());
+            byte[][] encoded = new byte[sorted.size()][];
+            int offset = 8 + 4 * sorted.size();
+            int i = 0;
+            for (Map.Entry<byte[], Object> entry : sorted.entrySet()) {
+                Object value = entry.getValue();
+                encoded[i] = StoreValues.encode(StoreValues.typeOf(value), value);
+                out.writeInt(offset);
+                offset += 2 + entry.getKey().length + 1 + 4 + encoded[i++].length;
+            }
+            i = 0;
+            for (Map.Entry<byte[], Object> entry : sorted.entrySet()) {
+                byte[] name = entry.getKey();
+                if (name.length > 0xffff) throw new IllegalArgumentException("Name too long: " + new String(name, UTF_8));
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeByte(StoreValues.typeOf(entry.getValue()));
+                out.writeInt(encoded[i].length);
+                out.write(encoded[i++]);
+            }
+            out.flush();
+            fos.getFD().sync();
+            written = true;
+        } finally {
+            fos.close();
+            if (!written) tmp.delete();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+    }
+
+    @Override public boolean contains(String name) {
+        if (!changes.isEmpty()) {
+            Object change = changes.get(name);
+            if (change != null) return change != REMOVED;
+        }
+        return !cleared && snapshot.find(name.getBytes(UTF_8)) >= 0;
+    }
+
+    @Override public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>();
+        if (!cleared) snapshot.readAll(all);
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == REMOVED) {
+                all.remove(change.getKey());
+            } else {
+                all.put(change.getKey(), change.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(all);
+    }
+
+    @Override public String getString(String name, String defValue) {
+        Object value = get(name, STRING);
+        return value == null ? defValue : (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Set<String> getStringSet(String name, Set<String> defValues) {
+        Object value = get(name, STRING_SET);
+        return value == null ? defValues : (Set<String>) value;
+    }
+
+    @Override public int getInt(String name, int defValue) {
+        Object value = get(name, INT);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override public long getLong(String name, long defValue) {
+        Object value = get(name, LONG);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override public float getFloat(String name, float defValue) {
+        Object value = get(name, FLOAT);
+        return value == null ? defValue : (Float) value;
+    }
+
+    @Override public boolean getBoolean(String name, boolean defValue) {
+        Object value = get(name, BOOLEAN);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    @Override public byte[] getBytes(String name) {
+        byte[] value = (byte[]) get(name, BYTES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * @throws ClassCastException if the value was stored with a different type
+     */
+    private Object get(String name, byte type) {
+        if (!changes.isEmpty()) {
+            Object change = changes.get(name);
+            if (change != null) {
+                if (change == REMOVED) return null;
+                StoreValues.checkType(name, StoreValues.typeOf(change), type);
+                return change;
+            }
+        }
+        return cleared ? null : snapshot.get(name, type);
+    }
+
+    @Override public Reader getStringReader(String name) {
+        if (!changes.isEmpty()) {
+            Object change = changes.get(name);
+            if (change != null) {
+                if (change == REMOVED) return null;
+                StoreValues.checkType(name, StoreValues.typeOf(change), STRING);
+                return new StringReader((String) change);
+            }
+        }
+        return cleared ? null : snapshot.reader(name);
+    }
+
+    @Override public int getStringSize(String name) {
+        if (!changes.isEmpty()) {
+            Object change = changes.get(name);
+            if (change != null) {
+                if (change == REMOVED) return -1;
+                StoreValues.checkType(name, StoreValues.typeOf(change), STRING);
+                return ((String) change).getBytes(UTF_8).length;
+            }
+        }
+        return cleared ? -1 : snapshot.stringSize(name);
+    }
+
+    @Override public PrefsStore.Editor edit() {
+        return new Editor();
+    }
+
+    @Override public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Maps the file again, for example after it was replaced with {@link #write(File, Map)}.
+     * Changes that were not written yet still take precedence.
+     */
+    @Override public void reload() {
+        synchronized (writeLock) {
+            try {
+                snapshot = Snapshot.open(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Writes any changes that were not written yet
+     */
+    @Override
+    public void close() throws IOException {
+        writeChanges();
+    }
+
+    /**
+     * Merges the changes into a new snapshot file. Changes made in the meantime are left
+     * for the next write.
+     */
+    void writeChanges() throws IOException {
+        synchronized (writeLock) {
+            Map<String, Object> written;
+            boolean clear;
+            int clears;
+            synchronized (this) {
+                if (changes.isEmpty() && !cleared) return;
+                written = new HashMap<>(changes);
+                clear = cleared;
+                clears = clearCount;
+            }
+            Map<String, Object> values = new HashMap<>();
+            if (!clear) snapshot.readAll(values);
+            for (Map.Entry<String, Object> change : written.entrySet()) {
+                if (change.getValue() == REMOVED) {
+                    values.remove(change.getKey());
+                } else {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+            write(file, values);
+            Snapshot updated = Snapshot.open(file);
+            synchronized (this) {
+                // Readers check the changes first, then whether the snapshot was cleared, and
+                // then the snapshot, so publish the snapshot before the changes are dropped
+                snapshot = updated;
+                // After a clear in the meantime, all changes were made since that clear, and
+                // are left for the next write, even those equal to a written change
+                if (clears == clearCount) {
+                    if (clear) cleared = false;
+                    for (Map.Entry<String, Object> change : written.entrySet()) {
+                        changes.remove(change.getKey(), change.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /** Applies the changes of an editor */
+    private synchronized void apply(Map<String, Object> edits, boolean clear) {
+        if (clear) {
+            changes.clear();
+            cleared = true;
+            ++clearCount;
+        }
+        changes.putAll(edits);
+    }
+
+    /** The entries of a mapped snapshot file */
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(ByteBuffer.allocate(8).putInt(0, MAGIC), 0);
+
+        private final ByteBuffer buffer; // only absolute reads, so that it can be shared by threads
+        private final int count;
+
+        Snapshot(ByteBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        static Snapshot open(File file) throws IOException {
+            if (file.length() == 0) return EMPTY; // also if it doesn't exist
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) throw new IOException("Not a snapshot: " + file);
+                return new Snapshot(buffer, buffer.getInt(4));
+            } finally {
+                raf.close(); // the mapping remains valid
+            }
+        }
+
+        private int offset(int index) {
+            return buffer.getInt(8 + 4 * index);
+        }
+
+        /**
+         * @return the index of the entry with the name, or a negative number if there is none
+         */
+        int find(byte[] name) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareName(offset(mid), name);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Compares the name of the entry at the offset with the name, byte by byte */
+        private int compareName(int offset, byte[] name) {
+            int length = buffer.getShort(offset) & 0xffff;
+            int min = Math.min(length, name.length);
+            for (int i = 0; i < min; ++i) {
+                int cmp = (buffer.get(offset + 2 + i) & 0xff) - (name[i] & 0xff);
+                if (cmp != 0) return cmp;
+            }
+            return length - name.length;
+        }
+
+        Object get(String name, byte type) {
+            int valueOffset = valueOffset(name, type);
+            return valueOffset < 0 ? null : value(valueOffset);
+        }
+
+        Reader reader(String name) {
+            int valueOffset = valueOffset(name, STRING);
+            if (valueOffset < 0) return null;
+            int length = buffer.getInt(valueOffset + 1);
+            if (length <= STREAMING_THRESHOLD) return new StringReader((String) value(valueOffset));
+            ByteBuffer value = buffer.duplicate();
+            value.position(valueOffset + 5);
+            value.limit(valueOffset + 5 + length);
+            return new InputStreamReader(new BufferInputStream(value), UTF_8);
+        }
+
+        int stringSize(String name) {
+            int valueOffset = valueOffset(name, STRING);
+            return valueOffset < 0 ? -1 : buffer.getInt(valueOffset + 1);
+        }
+
+        /**
+         * @return the offset of the type of the value, or -1 if there is no such entry
+         * @throws ClassCastException if the value was stored with a different type
+         */
+        private int valueOffset(String name, byte type) {
+            int index = find(name.getBytes(UTF_8));
+            if (index < 0) return -1;
+            int offset = offset(index);
+            int valueOffset = offset + 2 + (buffer.getShort(offset) & 0xffff);
+            StoreValues.checkType(name, buffer.get(valueOffset), type);
+            return valueOffset;
+        }
+
+        private Object value(int valueOffset) {
+            ByteBuffer value = buffer.duplicate();
+            value.position(valueOffset + 5);
+            return StoreValues.decode(buffer.get(valueOffset), value, buffer.getInt(valueOffset + 1));
+        }
+
+        void readAll(Map<String, Object> values) {
+            ByteBuffer names = buffer.duplicate();
+            for (int i = 0; i < count; ++i) {
+                int offset = offset(i);
+                int length = buffer.getShort(offset) & 0xffff;
+                byte[] name = new byte[length];
+                names.position(offset + 2);
+                names.get(name);
+                values.put(new String(name, UTF_8), value(offset + 2 + length));
+            }
+        }
+    }
+
+    /** Reads the remaining bytes of a buffer */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /** Orders names as unsigned bytes, which is the order of the entries in the file */
+    private static final Comparator<byte[]> NAME_ORDER = new Comparator<byte[]>() {
+        @Override public int compare(byte[] a, byte[] b) {
+            int min = Math.min(a.length, b.length);
+            for (int i = 0; i < min; ++i) {
+                int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+                if (cmp != 0) return cmp;
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final class Editor implements PrefsStore.Editor {
+        private final Map<String, Object> edits = new LinkedHashMap<>();
+        private boolean clear;
+
+        private Editor put(String name, Object value) {
+            edits.put(name, value == null ? REMOVED : value); // a null value removes the key
+            return this;
+        }
+
+        @Override public Editor putString(String name, String value) {
+            return put(name, value);
+        }
+        @Override public Editor putStringSet(String name, Set<String> values) {
+            return put(name, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+        }
+        @Override public Editor putInt(String name, int value) {
+            return put(name, value);
+        }
+        @Override public Editor putLong(String name, long value) {
+            return put(name, value);
+        }
+        @Override public Editor putFloat(String name, float value) {
+            return put(name, value);
+        }
+        @Override public Editor putBoolean(String name, boolean value) {
+            return put(name, value);
+        }
+        @Override public Editor putBytes(String name, byte[] value) {
+            return put(name, value == null ? null : value.clone());
+        }
+        @Override public Editor remove(String name) {
+            return put(name, null);
+        }
+        @Override public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override public void apply() {
+            if (!publish()) return;
+            if (writeScheduled.compareAndSet(false, true)) writeExecutor.execute(writeTask);
+        }
+
+        @Override public boolean commit() {
+            publish();
+            try {
+                writeChanges();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /** @return true if there were any changes */
+        private boolean publish() {
+            if (!clear && edits.isEmpty()) return false;
+            SnapshotStore.this.apply(edits, clear);
+            if (!listeners.isEmpty()) {
+                for (ChangeListener listener : listeners) {
+                    if (clear) listener.onChanged(SnapshotStore.this, null);
+                    for (String name : edits.keySet()) listener.onChanged(SnapshotStore.this, name);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Records the cacheable keys that are read during the first moments after startup, and
+ * preloads the same keys on the next startup, before the app asks for them. The recorded
+ * keys are stored in a small internal prefs file, {@link #PREFS_FILE_NAME}.
+ *
+ * <p>Use with {@link SharedPrefs#init(StartupProfile, Prefs, Prefs...)}. Keys are recreated
+ * from their stored name and type, so keys whose type can not be recreated, such as
+ * non-static inner classes, are not preloaded. A profile is only replayed by the app version
+ * that recorded it, since an update may change the type of a key, or how it is serialized.
+ *
+ * @author Inderjeet Singh
+ */
+public final class StartupProfile {
+
+    public static final String PREFS_FILE_NAME = "com.peel.prefs.startup_profile";
+    private static final String KEYS = "keys";
+    private static final String VERSION = "version";
+    private static final int KEYS_PER_TASK = 8;
+
+    private final ScheduledExecutorService executor;
+    private final long window;
+    private final TimeUnit unit;
+    private final int version;
+    private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Queue<String> accesses = new ConcurrentLinkedQueue<>(); // in order of first access
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private volatile Collection<Prefs> prefsList;
+
+    /**
+     * @param executor the executor for preloading keys and for saving the profile
+     * @param window how long after startup to record the keys that are read
+     * @param unit the unit for {@code window}
+     * @param version the version of the app, such as its {@code versionCode}. The profile
+     *   recorded by another version is discarded.
+     */
+    public StartupProfile(ScheduledExecutorService executor, long window, TimeUnit unit, int version) {
+        Prefs.requireNonNull(executor);
+        Prefs.requireNonNull(unit);
+        this.executor = executor;
+        this.window = window;
+        this.unit = unit;
+        this.version = version;
+    }
+
+    /**
+     * Preloads the keys recorded on the last startup and starts recording this one.
+     *
+     * @return a future that completes once the recorded keys have been preloaded
+     */
+    Future<Void> start(Collection<Prefs> prefsList) {
+        if (!started.compareAndSet(false, true)) throw new IllegalStateException("Already started");
+        this.prefsList = prefsList;
+        Future<Void> preloaded = replay(prefsList);
+        for (Prefs prefs : prefsList) prefs.setStartupProfile(this);
+        executor.schedule(new Runnable() {
+            @Override public void run() {
+                stop();
+            }
+        }, window, unit);
+        return preloaded;
+    }
+
+    /**
+     * Stops recording and saves the keys recorded so far for the next startup. Called
+     * automatically once the recording window has passed.
+     */
+    public void stop() {
+        if (!started.get() || !stopped.compareAndSet(false, true)) return;
+        Collection<Prefs> list = prefsList;
+        for (Prefs prefs : list) prefs.setStartupProfile(null);
+        StringBuilder sb = new StringBuilder();
+        for (String access : accesses) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(access);
+        }
+        storage(list).edit().putInt(VERSION, version).putString(KEYS, sb.toString()).apply();
+    }
+
+    void record(Prefs prefs, TypedKey<?> key) {
+        if (!key.isCacheableInMemory() || key.getValueCodec() != null) return; // replayed keys are read as JSON
+        String fileName = prefs.getPrefsFileName();
+        String name = key.getName();
+        String access = (fileName == null ? "" : fileName) + '\t' + name;
+        if (seen.contains(access) || !seen.add(access)) return;
+        String type = TypeNames.toString(key.getTypeOfValue());
+        if (type == null || name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0) return;
+        accesses.add(access + '\t' + type);
+    }
+
+    private Future<Void> replay(Collection<Prefs> list) {
+        SharedPreferences storage = storage(list);
+        List<Future<Void>> preloads = new ArrayList<>();
+        if (!storage.contains(VERSION) || storage.getInt(VERSION, 0) != version) return new AllOf(preloads);
+        String profile = storage.getString(KEYS, null);
+        if (profile == null || profile.isEmpty()) return new AllOf(preloads);
+        Map<String, Prefs> prefsByFile = new HashMap<>();
+        for (Prefs prefs : list) {
+            String fileName = prefs.getPrefsFileName();
+            prefsByFile.put(fileName == null ? "" : fileName, prefs);
+        }
+        Map<Prefs, List<TypedKey<?>>> keysByPrefs = new HashMap<>();
+        for (String access : profile.split("\n")) {
+            String[] parts = access.split("\t");
+            if (parts.length != 3) continue;
+            Prefs prefs = prefsByFile.get(parts[0]);
+            TypedKey<?> key = prefs == null ? null : createKey(parts[1], parts[2], prefs.getPrefsFileName());
+            if (key == null) continue;
+            List<TypedKey<?>> keys = keysByPrefs.get(prefs);
+            if (keys == null) {
+                keys = new ArrayList<>();
+                keysByPrefs.put(prefs, keys);
+            }
+            keys.add(key);
+        }
+        for (Map.Entry<Prefs, List<TypedKey<?>>> entry : keysByPrefs.entrySet()) {
+            List<TypedKey<?>> keys = entry.getValue();
+            for (int i = 0; i < keys.size(); i += KEYS_PER_TASK) { // so that the keys are decoded in parallel
+                List<TypedKey<?>> chunk = keys.subList(i, Math.min(i + KEYS_PER_TASK, keys.size()));
+                preloads.add(entry.getKey().preload(chunk, executor));
+            }
+        }
+        return new AllOf(preloads);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static TypedKey<?> createKey(String name, String typeName, String prefsFileName) {
+        try {
+            Type type = TypeNames.parse(typeName, StartupProfile.class.getClassLoader());
+            return new TypedKey(name, TypeToken.get(type), prefsFileName, true);
+        } catch (ClassNotFoundException e) { // the class was renamed or removed since the profile was saved
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static SharedPreferences storage(Collection<Prefs> list) {
+        for (Prefs prefs : list) {
+            Context context = prefs.context();
+            if (context != null) return context.getSharedPreferences(PREFS_FILE_NAME, Context.MODE_PRIVATE);
+        }
+        throw new IllegalStateException("The profile is stored through the Context of a Prefs, but none has one");
+    }
+}
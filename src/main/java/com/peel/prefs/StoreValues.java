@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The binary encoding of values in the files of {@link LogStore} and {@link SnapshotStore}.
+ * Each value is stored with a type byte, and the encoding of a value does not include its
+ * length, which the file format records.
+ *
+ * @author Inderjeet Singh
+ */
+final class StoreValues {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte STRING = 2;
+    static final byte STRING_SET = 3;
+    static final byte INT = 4;
+    static final byte LONG = 5;
+    static final byte FLOAT = 6;
+    static final byte BOOLEAN = 7;
+    static final byte BYTES = 8;
+
+    /**
+     * @param value a String, Set of Strings, Integer, Long, Float, Boolean or byte array
+     */
+    static byte typeOf(Object value) {
+        if (value instanceof String) return STRING;
+        if (value instanceof Integer) return INT;
+        if (value instanceof Long) return LONG;
+        if (value instanceof Float) return FLOAT;
+        if (value instanceof Boolean) return BOOLEAN;
+        if (value instanceof byte[]) return BYTES;
+        if (value instanceof Set) return STRING_SET;
+        throw new IllegalArgumentException("Unsupported type: " + value.getClass());
+    }
+
+    static String typeName(byte type) {
+        switch (type) {
+        case STRING: return "String";
+        case STRING_SET: return "Set<String>";
+        case INT: return "int";
+        case LONG: return "long";
+        case FLOAT: return "float";
+        case BOOLEAN: return "boolean";
+        default: return "byte[]";
+        }
+    }
+
+    /**
+     * @throws ClassCastException if the value was stored with a different type than requested
+     */
+    static void checkType(String name, byte storedType, byte requestedType) {
+        if (storedType != requestedType) {
+            throw new ClassCastException(name + " was not stored as " + typeName(requestedType));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static byte[] encode(byte type, Object value) {
+        switch (type) {
+        case STRING:
+            return ((String) value).getBytes(UTF_8);
+        case INT:
+            return ByteBuffer.allocate(4).putInt((Integer) value).array();
+        case LONG:
+            return ByteBuffer.allocate(8).putLong((Long) value).array();
+        case FLOAT:
+            return ByteBuffer.allocate(4).putFloat((Float) value).array();
+        case BOOLEAN:
+            return new byte[] {(byte) ((Boolean) value ? 1 : 0)};
+        case BYTES:
+            return (byte[]) value;
+        case STRING_SET:
+            Set<String> set = (Set<String>) value;
+            byte[][] strings = new byte[set.size()][];
+            int size = 4;
+            int i = 0;
+            for (String str : set) {
+                strings[i] = str.getBytes(UTF_8);
+                size += 4 + strings[i++].length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size).putInt(strings.length);
+            for (byte[] bytes : strings) buffer.putInt(bytes.length).put(bytes);
+            return buffer.array();
+        default:
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    /**
+     * Decodes a value from the buffer, starting at its position
+     *
+     * @param length the length of the encoded value
+     */
+    static Object decode(byte type, ByteBuffer buffer, int length) {
+        switch (type) {
+        case STRING:
+            return new String(bytes(buffer, length), UTF_8);
+        case INT:
+            return buffer.getInt();
+        case LONG:
+            return buffer.getLong();
+        case FLOAT:
+            return buffer.getFloat();
+        case BOOLEAN:
+            return buffer.get() != 0;
+        case BYTES:
+            return bytes(buffer, length);
+        case STRING_SET:
+            int count = buffer.getInt();
+            Set<String> set = new HashSet<>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                set.add(new String(bytes(buffer, buffer.getInt()), UTF_8));
+            }
+            return Collections.unmodifiableSet(set);
+        default:
+            throw new IllegalStateException("Unknown type " + type);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private StoreValues() {} // Not instantiable
+}
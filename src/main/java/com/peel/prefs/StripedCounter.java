@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The in-memory value of a {@link CounterKey}. Additions go to one of several cells, chosen
+ * by thread, so that threads incrementing the same counter rarely contend on a cell. Each
+ * cell sits on its own cache line.
+ *
+ * @author Inderjeet Singh
+ */
+final class StripedCounter {
+
+    private static final int PAD = 8; // longs per 64 byte cache line
+    private static final int STRIPES;
+    static {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpus && stripes < 64) stripes <<= 1;
+        STRIPES = stripes;
+    }
+
+    private final long base; // the persisted value when the counter was loaded
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+    long persisted; // guarded by the flush lock in Prefs
+
+    StripedCounter(long base) {
+        this.base = base;
+        this.persisted = base;
+    }
+
+    void add(long delta) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) (id ^ (id >>> 32)) & (STRIPES - 1);
+        cells.getAndAdd(stripe * PAD, delta);
+    }
+
+    /** @return the current value. Not a snapshot if other threads are adding concurrently. */
+    long get() {
+        long sum = base;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
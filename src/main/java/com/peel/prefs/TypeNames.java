@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Converts the type of a {@link TypedKey} to a string and back, so that a key can be
+ * recreated from its stored name and type. Classes, parameterized types and arrays are
+ * supported, for example {@code java.util.Map<java.lang.String,java.util.List<com.foo.Bar>>}.
+ *
+ * @author Inderjeet Singh
+ */
+final class TypeNames {
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+    static {
+        for (Class<?> clazz : new Class<?>[] {boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class}) {
+            PRIMITIVES.put(clazz.getName(), clazz);
+        }
+    }
+
+    private TypeNames() {}
+
+    /**
+     * @return the name of the type, or null for types that can not be recreated, such as
+     *   wildcards and type variables
+     */
+    static String toString(Type type) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (!clazz.isArray()) return clazz.getName();
+            String component = toString(clazz.getComponentType());
+            return component == null ? null : component + "[]";
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            StringBuilder sb = new StringBuilder(toString(parameterized.getRawType())).append('<');
+            Type[] args = parameterized.getActualTypeArguments();
+            for (int i = 0; i < args.length; ++i) {
+                String arg = toString(args[i]);
+                if (arg == null) return null;
+                if (i > 0) sb.append(',');
+                sb.append(arg);
+            }
+            return sb.append('>').toString();
+        }
+        if (type instanceof GenericArrayType) {
+            String component = toString(((GenericArrayType) type).getGenericComponentType());
+            return component == null ? null : component + "[]";
+        }
+        return null;
+    }
+
+    /**
+     * @throws ClassNotFoundException if a class in the name is not found
+     * @throws IllegalArgumentException if the name is malformed
+     */
+    static Type parse(String name, ClassLoader classLoader) throws ClassNotFoundException {
+        Parser parser = new Parser(name, classLoader);
+        Type type = parser.type();
+        if (parser.pos != name.length()) throw new IllegalArgumentException(name);
+        return type;
+    }
+
+    private static final class Parser {
+        private final String name;
+        private final ClassLoader classLoader;
+        int pos;
+
+        Parser(String name, ClassLoader classLoader) {
+            this.name = name;
+            this.classLoader = classLoader;
+        }
+
+        Type type() throws ClassNotFoundException {
+            int start = pos;
+            while (pos < name.length() && "<,>[".indexOf(name.charAt(pos)) < 0) ++pos;
+            if (pos == start) throw new IllegalArgumentException(name);
+            String className = name.substring(start, pos);
+            Class<?> primitive = PRIMITIVES.get(className);
+            Type type = primitive != null ? primitive : Class.forName(className, false, classLoader);
+            if (accept('<')) {
+                List<Type> args = new ArrayList<>();
+                do {
+                    args.add(type());
+                } while (accept(','));
+                expect('>');
+                type = TypeToken.getParameterized(type, args.toArray(new Type[args.size()])).getType();
+            }
+            while (accept('[')) {
+                expect(']');
+                type = type instanceof Class
+                        ? Array.newInstance((Class<?>) type, 0).getClass()
+                        : TypeToken.getArray(type).getType();
+            }
+            return type;
+        }
+
+        private boolean accept(char c) {
+            if (pos < name.length() && name.charAt(pos) == c) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) throw new IllegalArgumentException(name);
+        }
+    }
+}
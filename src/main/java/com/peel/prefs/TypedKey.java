@@ -35,6 +35,10 @@ public class TypedKey<T> {
     private final boolean cacheableInMemory;
     private final String[] tags;
 	private final String prefsFileName;
+    private volatile Weigher<? super T> weigher;
+    private volatile boolean skipUnchangedWrites;
+    private volatile ValueCodec<T> valueCodec;
+    volatile Codec<T> codec; // resolved by Prefs on first use
 
     /**
      * @param name Ensure that this name is Unique.
@@ -105,6 +109,61 @@ public class TypedKey<T> {
         return cacheableInMemory;
     }
 
+    /**
+     * Overrides the estimate of the memory retained by values of this key, for caches
+     * that have a byte budget.
+     *
+     * @return this key
+     */
+    public TypedKey<T> withWeigher(Weigher<? super T> weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * @return the weigher set by {@link #withWeigher(Weigher)}, or null
+     */
+    public Weigher<? super T> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * When set, a put of a value that equals the current value does not write to the prefs
+     * file or notify listeners. The current value is taken from the in-memory cache if
+     * present, otherwise from the prefs file, comparing the JSON for types stored as JSON.
+     *
+     * @return this key
+     */
+    public TypedKey<T> withSkipUnchangedWrites(boolean skip) {
+        this.skipUnchangedWrites = skip;
+        return this;
+    }
+
+    public boolean skipsUnchangedWrites() {
+        return skipUnchangedWrites;
+    }
+
+    /**
+     * Stores values of this key in the binary format of the codec instead of as JSON.
+     * Values that were stored with a different format can not be read after this is set,
+     * so migrate them first, for example by reading them with a key without the codec and
+     * putting them again.
+     *
+     * @return this key
+     */
+    public TypedKey<T> withValueCodec(ValueCodec<T> valueCodec) {
+        this.valueCodec = valueCodec;
+        this.codec = null;
+        return this;
+    }
+
+    /**
+     * @return the codec set by {@link #withValueCodec(ValueCodec)}, or null if values are stored as JSON
+     */
+    public ValueCodec<T> getValueCodec() {
+        return valueCodec;
+    }
+
     public boolean containsTag(String tagName) {
         if (tags == null) return false;
         for (String tag : tags) {
@@ -115,6 +174,10 @@ public class TypedKey<T> {
         return false;
     }
 
+    boolean hasTags() {
+        return tags != null && tags.length > 0;
+    }
+
     @SuppressWarnings("unchecked")
     public Iterable<String> tags() {
         return tags == null ? Collections.EMPTY_LIST : Arrays.asList(tags);
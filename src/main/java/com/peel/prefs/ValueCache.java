@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+/**
+ * An in-memory cache of deserialized values, keyed by the key name. {@link Prefs} only
+ * stores values of keys that are {@link TypedKey#isCacheableInMemory() cacheable}.
+ * Implementations must be thread-safe and must not store nulls.
+ *
+ * @author Inderjeet Singh
+ */
+public interface ValueCache {
+
+    /**
+     * @return the cached value or null if none is cached
+     */
+    Object get(String name);
+
+    /**
+     * @param weight the estimated number of bytes retained by the value. Caches that bound
+     *   the number of entries instead of their size ignore it.
+     */
+    void put(String name, Object value, int weight);
+
+    /**
+     * @return the previously cached value or null if none was cached
+     */
+    Object remove(String name);
+
+    void clear();
+
+    /**
+     * @return the number of cached values
+     */
+    int size();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+/**
+ * Encodes the values of a key in a custom binary format, instead of the default JSON
+ * produced by Gson. Attach to a key with {@link TypedKey#withValueCodec(ValueCodec)}. The
+ * bytes are stored with {@link PrefsStore.Editor#putBytes(String, byte[])}; for
+ * {@code SharedPreferences}, that is a Base64 string. See {@link BinaryCodec} for a compact
+ * codec for common types.
+ *
+ * <p>Implementations must be thread-safe.
+ *
+ * @param <T> the type of values encoded
+ *
+ * @author Inderjeet Singh
+ */
+public interface ValueCodec<T> {
+
+    /**
+     * @param value a non-null value
+     */
+    byte[] encode(T value);
+
+    /**
+     * @param bytes the bytes returned by {@link #encode(Object)}
+     */
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+/**
+ * Estimates the memory retained by a cached value. Only used by caches with a byte budget,
+ * see {@link ConcurrentValueCache#withByteBudget(long)}. Attach to a key with
+ * {@link TypedKey#withWeigher(Weigher)} when the default estimate, based on the size of the
+ * stored form of the value, is far off.
+ *
+ * @param <T> the type of values weighed
+ *
+ * @author Inderjeet Singh
+ */
+public interface Weigher<T> {
+
+    /**
+     * @return the estimated number of bytes retained by the value. Must not be negative.
+     */
+    int weigh(T value);
+}
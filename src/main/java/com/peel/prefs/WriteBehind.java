@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the latest value of keys that were changed but not yet written to the prefs file,
+ * and writes all of them with a single editor once no key has changed for the debounce
+ * interval, or once the oldest change is older than the maximum delay.
+ *
+ * @author Inderjeet Singh
+ */
+final class WriteBehind {
+
+    /** A change that has not yet been written */
+    static final class Pending<T> {
+        final Codec<T> codec;
+        final T value;
+        final boolean remove;
+        final boolean cacheable;
+        final Weigher<? super T> weigher;
+        Pending(Codec<T> codec, T value, boolean remove, boolean cacheable, Weigher<? super T> weigher) {
+            this.codec = codec;
+            this.value = value;
+            this.remove = remove;
+            this.cacheable = cacheable;
+            this.weigher = weigher;
+        }
+    }
+
+    private final Prefs prefs;
+    private final ScheduledExecutorService executor;
+    private final long debounceNanos;
+    private final long maxDelayNanos;
+    private final Map<String, Pending<?>> dirty = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long firstDirtyNanos;
+    private volatile long lastDirtyNanos;
+    private final Object flushLock = new Object();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override public void run() {
+            long now = System.nanoTime();
+            long due = Math.min(lastDirtyNanos + debounceNanos, firstDirtyNanos + maxDelayNanos);
+            if (now < due) { // keys changed since this was scheduled
+                try {
+                    executor.schedule(this, due - now, TimeUnit.NANOSECONDS);
+                    return;
+                } catch (RejectedExecutionException e) { // for example after shutdown, so write now
+                }
+            }
+            scheduled.set(false);
+            flush();
+        }
+    };
+
+    WriteBehind(Prefs prefs, ScheduledExecutorService executor, long debounce, long maxDelay, TimeUnit unit) {
+        this.prefs = prefs;
+        this.executor = executor;
+        this.debounceNanos = unit.toNanos(debounce);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    Pending<?> get(String name) {
+        return dirty.get(name);
+    }
+
+    /**
+     * @return a live view of the changes not yet written, by key name
+     */
+    Map<String, Pending<?>> pending() {
+        return Collections.unmodifiableMap(dirty);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the flush could not be scheduled. The change
+     *   is kept, and is written by the next flush.
+     */
+    void put(String name, Pending<?> pending) {
+        dirty.put(name, pending);
+        long now = System.nanoTime();
+        lastDirtyNanos = now;
+        if (scheduled.compareAndSet(false, true)) {
+            firstDirtyNanos = now;
+            try {
+                executor.schedule(flushTask, debounceNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // so that the next change tries again
+                throw e;
+            }
+        }
+    }
+
+    void discardAll() {
+        dirty.clear();
+    }
+
+    /**
+     * @return the number of keys with changes not yet written
+     */
+    int size() {
+        return dirty.size();
+    }
+
+    void flush() {
+        synchronized (flushLock) {
+            if (dirty.isEmpty()) return;
+            List<Map.Entry<String, Pending<?>>> changes = new ArrayList<>(dirty.entrySet());
+            prefs.writePending(changes);
+            for (Map.Entry<String, Pending<?>> change : changes) {
+                // Keep changes made while writing for the next flush
+                dirty.remove(change.getKey(), change.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#setAbsentKeyCachingEnabled(boolean)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AbsentKeyCachingTest {
+
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private SharedPreferences persistPrefs;
+    private final List<String> reads = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+            @Override public void onGet(String key) {
+                reads.add(key);
+            }
+        });
+        persistPrefs.edit().putString("existing", "a").apply();
+        prefs = new Prefs(context, gson);
+        prefs.setAbsentKeyCachingEnabled(true);
+    }
+
+    @Test
+    public void absentKeysNotReadFromPrefs() {
+        TypedKey<String> key = new TypedKey<>("absent", String.class);
+        assertFalse(prefs.contains(key));
+        assertNull(prefs.get(key));
+        assertEquals("b", prefs.get(key, "b"));
+        assertEquals("b", prefs.get("absent", String.class, "b"));
+        assertFalse(prefs.get(new TypedKey<>("absent", Boolean.class)));
+        assertFalse(reads.contains("absent"));
+    }
+
+    @Test
+    public void existingKeysLoadedFromPrefs() {
+        TypedKey<String> key = new TypedKey<>("existing", String.class);
+        assertTrue(prefs.contains(key));
+        assertEquals("a", prefs.get(key));
+    }
+
+    @Test
+    public void putRemoveClearKeepIndexCoherent() {
+        TypedKey<String> key = new TypedKey<>("key", String.class, false);
+        assertFalse(prefs.contains(key));
+        prefs.put(key, "1");
+        assertTrue(prefs.contains(key));
+        assertEquals("1", prefs.get(key));
+        prefs.remove(key);
+        assertFalse(prefs.contains(key));
+
+        IntKey intKey = new IntKey("int");
+        prefs.putInt(intKey, 2);
+        assertTrue(prefs.contains(intKey));
+
+        prefs.clear();
+        assertFalse(prefs.contains(intKey));
+        assertFalse(prefs.contains(new TypedKey<>("existing", String.class)));
+        prefs.put(key, "3");
+        assertEquals("3", prefs.get(key));
+    }
+}
@@ -15,15 +15,20 @@
  */
 package com.peel.prefs;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
 /**
@@ -34,9 +39,11 @@ import android.preference.PreferenceManager;
 public class AndroidFixtures {
     public static class PrefsListener {
         public void onGet(String key) {}
+        public void onGetAll() {}
         public void onPut(String key, Object value) {}
         public void onRemove(String key) {}
         public void onInit(SharedPreferences prefs) {}
+        public void onApply() {}
     }
 
     public static Context createMockContext() {
@@ -60,10 +67,15 @@ public class AndroidFixtures {
     }
 
     public static SharedPreferences createMockSharedPreferences(Context context, final PrefsListener listener) {
-        final Map<String, Object> map = new HashMap<>();
+        final Map<String, Object> map = Collections.synchronizedMap(new HashMap<String, Object>());
+        final List<OnSharedPreferenceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
         return new SharedPreferences() {
-            @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
-            @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+            @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+                changeListeners.remove(listener);
+            }
+            @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+                changeListeners.add(listener);
+            }
             @SuppressWarnings("unchecked") private <T> T get(String key, T defValue) {
                 if (listener != null) listener.onGet(key);
                 return map.containsKey(key) ? (T) map.get(key) : defValue;
@@ -93,6 +105,7 @@ public class AndroidFixtures {
                 return get(key, defValue);
             }
             @Override public Map<String, ?> getAll() {
+                if (listener != null) listener.onGetAll();
                 return map;
             }
             @Override public boolean contains(String key) {
@@ -100,50 +113,75 @@ public class AndroidFixtures {
                 return map.containsKey(key);
             }
             @Override public Editor edit() {
+                final SharedPreferences prefs = this;
                 return new Editor() {
+                    private final Set<String> changed = new LinkedHashSet<>();
+                    private void put(String key, Object value) {
+                        if (value == null) { // like Android, a null value removes the key
+                            remove(key);
+                            return;
+                        }
+                        Object previous = map.put(key, value);
+                        if (previous == null ? value != null : !previous.equals(value)) changed.add(key);
+                    }
+                    /** Like Android, listeners are notified of the keys whose value changed */
+                    private void notifyChanged() {
+                        for (String key : changed) {
+                            for (OnSharedPreferenceChangeListener changeListener : changeListeners) {
+                                changeListener.onSharedPreferenceChanged(prefs, key);
+                            }
+                        }
+                        changed.clear();
+                    }
                     @Override public Editor remove(String key) {
+                        if (map.containsKey(key)) changed.add(key);
                         map.remove(key);
                         if (listener != null) listener.onRemove(key);
                         return this;
                     }
                     @Override public Editor putStringSet(String key, Set<String> values) {
-                        map.put(key, values);
+                        put(key, values);
                         if (listener != null) listener.onPut(key, values);
                         return this;
                     }
                     @Override public Editor putString(String key, String value) {
-                        map.put(key, value);
+                        put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
                     @Override public Editor putLong(String key, long value) {
-                        map.put(key, value);
+                        put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
                     @Override public Editor putInt(String key, int value) {
-                        map.put(key, value);
+                        put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
                     @Override public Editor putFloat(String key, float value) {
-                        map.put(key, value);
+                        put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
                     @Override public Editor putBoolean(String key, boolean value) {
-                        map.put(key, value);
+                        put(key, value);
                         if (listener != null) listener.onPut(key, value);
                         return this;
                     }
                     @Override public boolean commit() {
+                        if (listener != null) listener.onApply();
+                        notifyChanged();
                         return true;
                     }
                     @Override public Editor clear() {
                         map.clear();
                         return this;
                     }
-                    @Override public void apply() {} // no op
+                    @Override public void apply() {
+                        if (listener != null) listener.onApply();
+                        notifyChanged();
+                    }
                 };
             }
         };
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for the asynchronous methods of {@link Prefs}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AsyncTest {
+
+    /** Runs tasks only when asked to */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        @Override public void execute(Runnable command) {
+            tasks.add(command);
+        }
+        void runAll() {
+            List<Runnable> toRun = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : toRun) task.run();
+        }
+    }
+
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private final ManualExecutor executor = new ManualExecutor();
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext();
+        prefs = new Prefs(context, gson);
+    }
+
+    @Test
+    public void getAsync() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class, false);
+        prefs.put(key, "a");
+        Future<String> future = prefs.getAsync(key, executor);
+        executor.runAll();
+        assertEquals("a", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentReadsDeduplicated() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class, false);
+        prefs.put(key, "a");
+        Future<String> first = prefs.getAsync(key, executor);
+        Future<String> second = prefs.getAsync(key, executor);
+        assertSame(first, second);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals("a", second.get());
+        assertNotSame(first, prefs.getAsync(key, executor)); // completed reads are not reused
+    }
+
+    @Test
+    public void putInvalidatesInFlightRead() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class, false);
+        prefs.put(key, "a");
+        Future<String> first = prefs.getAsync(key, executor);
+        prefs.put(key, "b");
+        Future<String> second = prefs.getAsync(key, executor);
+        assertNotSame(first, second);
+        executor.runAll();
+        assertEquals("b", second.get());
+    }
+
+    @Test
+    public void callbacks() {
+        TypedKey<Integer> key = new TypedKey<>("key", Integer.class);
+        prefs.put(key, 1);
+        final List<Object> results = new ArrayList<>();
+        Prefs.Callback<Integer> callback = new Prefs.Callback<Integer>() {
+            @Override public void onSuccess(Integer value) {
+                results.add(value);
+            }
+            @Override public void onFailure(Throwable error) {
+                results.add(error);
+            }
+        };
+        prefs.getAsync(key, executor, callback);
+        prefs.getAsync(key, executor, callback);
+        assertTrue(results.isEmpty());
+        executor.runAll();
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(0));
+    }
+
+    @Test
+    public void failuresDelivered() {
+        prefs.put(new TypedKey<>("key", Integer.class, false), 1);
+        TypedKey<List<String>> key = new TypedKey<>("key", new TypeToken<List<String>>() {});
+        final List<Throwable> errors = new ArrayList<>();
+        prefs.getAsync(key, executor, new Prefs.Callback<List<String>>() {
+            @Override public void onSuccess(List<String> value) {}
+            @Override public void onFailure(Throwable error) {
+                errors.add(error);
+            }
+        });
+        executor.runAll();
+        assertEquals(1, errors.size()); // an int can not be read as a List
+    }
+
+    @Test
+    public void putAsync() throws Exception {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        Future<Void> future = prefs.putAsync(key, "a", executor);
+        assertTrue(!prefs.contains(key));
+        executor.runAll();
+        future.get();
+        assertEquals("a", prefs.get(key));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#update(TypedKey, Prefs.Updater)}, {@link Prefs#increment(TypedKey, long)}
+ * and {@link Prefs#compareAndSet(TypedKey, Object, Object)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class AtomicUpdateTest {
+
+    private static final TypedKey<Long> VISITS = new TypedKey<>("visits", Long.class);
+    private static final LongKey LAUNCHES = new LongKey("launches");
+    private static final TypedKey<Integer> SCORE = new TypedKey<>("score", Integer.class, false);
+    private static final TypedKey<List<Integer>> HISTORY = new TypedKey<>("history", new TypeToken<List<Integer>>() {});
+
+    private Prefs prefs;
+
+    @Before
+    public void setUp() {
+        prefs = new Prefs(AndroidFixtures.createMockContext(), new Gson());
+    }
+
+    @Test
+    public void increment() {
+        assertEquals(2, prefs.increment(VISITS, 2));
+        assertEquals(5, prefs.increment(VISITS, 3));
+        assertEquals(5L, prefs.get(VISITS).longValue());
+        assertEquals(-1, prefs.increment(LAUNCHES, -1));
+        assertEquals(-1, prefs.getLong(LAUNCHES));
+    }
+
+    @Test
+    public void compareAndSet() {
+        assertFalse(prefs.compareAndSet(SCORE, 1, 2));
+        assertTrue(prefs.compareAndSet(SCORE, null, 1));
+        assertFalse(prefs.compareAndSet(SCORE, null, 2));
+        assertTrue(prefs.compareAndSet(SCORE, 1, 2));
+        assertEquals(2, prefs.get(SCORE).intValue());
+    }
+
+    @Test
+    public void update() {
+        List<Integer> history = prefs.update(HISTORY, new Append(7));
+        assertEquals(1, history.size());
+        prefs.update(HISTORY, new Append(8));
+        assertEquals(2, prefs.get(HISTORY).size());
+    }
+
+    @Test(timeout = 60000)
+    public void noLostUpdates() throws Exception {
+        final int threads = 8;
+        final int iterations = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < iterations; ++i) {
+                            prefs.increment(VISITS, 1);
+                            prefs.increment(LAUNCHES, 2);
+                            prefs.update(HISTORY, new Append(thread));
+                            while (true) {
+                                Integer score = prefs.contains(SCORE) ? prefs.get(SCORE) : null;
+                                if (prefs.compareAndSet(SCORE, score, score == null ? 1 : score + 1)) break;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        int total = threads * iterations;
+        assertEquals(total, prefs.get(VISITS).longValue());
+        assertEquals(2L * total, prefs.getLong(LAUNCHES));
+        assertEquals(total, prefs.get(HISTORY).size());
+        assertEquals(total, prefs.get(SCORE).intValue());
+    }
+
+    private static final class Append implements Prefs.Updater<List<Integer>> {
+        private final int value;
+        Append(int value) {
+            this.value = value;
+        }
+        @Override public List<Integer> apply(List<Integer> list) {
+            List<Integer> updated = list == null ? new ArrayList<Integer>() : new ArrayList<>(list);
+            updated.add(value);
+            return updated;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs.Batch} and {@link SharedPrefs.Batch}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class BatchTest {
+
+    private Context context;
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private int applyCount;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        }, "my_props");
+        prefs = new Prefs(context, gson);
+        prefs.addListener(new Prefs.EventListener() {
+            @Override public <T> void onPut(TypedKey<T> key, T value) {
+                events.add("put " + key + "=" + value);
+            }
+            @Override public <T> void onRemove(TypedKey<T> key) {
+                events.add("remove " + key);
+            }
+        });
+    }
+
+    @Test
+    public void singleApplyPerBatch() {
+        Prefs.Batch batch = prefs.edit();
+        for (int i = 0; i < 200; ++i) {
+            batch.put(new TypedKey<>("key" + i, Integer.class), i);
+        }
+        assertEquals(0, applyCount);
+        batch.apply();
+        assertEquals(1, applyCount);
+        assertEquals(200, events.size());
+        for (int i = 0; i < 200; ++i) {
+            assertEquals(i, (int) prefs.get(new TypedKey<>("key" + i, Integer.class)));
+        }
+    }
+
+    @Test
+    public void lastChangeToKeyWins() {
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        TypedKey<String> other = new TypedKey<>("other", String.class);
+        prefs.edit().put(key, "a").put(key, "b").remove(other).apply();
+        assertEquals("b", prefs.get(key));
+        assertEquals(1, events.size()); // other was not present, so no remove event
+        assertEquals("put key=b", events.get(0));
+
+        events.clear();
+        prefs.edit().put(key, "c").remove(key).apply();
+        assertFalse(prefs.contains(key));
+        assertEquals("remove key", events.get(0));
+    }
+
+    @Test
+    public void emptyBatch() {
+        prefs.edit().apply();
+        assertEquals(0, applyCount);
+    }
+
+    @Test
+    public void sharedPrefsBatchGroupedByFile() {
+        SharedPrefs.TestAccess.init(prefs, new Prefs(context, gson, "my_props", 10));
+        applyCount = 0;
+        TypedKey<String> key1 = new TypedKey<>("key1", String.class);
+        TypedKey<String> key2 = new TypedKey<>("key2", String.class);
+        TypedKey<String> key3 = new TypedKey<>("key3", String.class, "my_props", true);
+        SharedPrefs.edit().put(key1, "1").put(key3, "3").put(key2, "2").apply();
+        assertEquals(2, applyCount);
+        assertEquals("1", SharedPrefs.get(key1));
+        assertEquals("2", SharedPrefs.get(key2));
+        assertEquals("3", SharedPrefs.get(key3));
+        assertNull(prefs.get(key3));
+    }
+}
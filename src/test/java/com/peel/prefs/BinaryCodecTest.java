@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Unit tests for {@link BinaryCodec}
+ *
+ * @author Inderjeet Singh
+ */
+public class BinaryCodecTest {
+
+    private enum Color { RED, GREEN }
+
+    private static <T> T roundTrip(BinaryCodec<T> codec, T value) {
+        return codec.decode(codec.encode(value));
+    }
+
+    @Test
+    public void scalars() {
+        assertEquals(Integer.MIN_VALUE, (int) roundTrip(BinaryCodec.of(Integer.class), Integer.MIN_VALUE));
+        assertEquals(-1L, (long) roundTrip(BinaryCodec.of(Long.class), -1L));
+        assertEquals(Long.MAX_VALUE, (long) roundTrip(BinaryCodec.of(Long.class), Long.MAX_VALUE));
+        assertEquals((short) -300, (short) roundTrip(BinaryCodec.of(Short.class), (short) -300));
+        assertEquals((byte) -1, (byte) roundTrip(BinaryCodec.of(Byte.class), (byte) -1));
+        assertEquals(1.25f, roundTrip(BinaryCodec.of(Float.class), 1.25f), 0);
+        assertEquals(Math.PI, roundTrip(BinaryCodec.of(Double.class), Math.PI), 0);
+        assertEquals(true, roundTrip(BinaryCodec.of(Boolean.class), true));
+        assertEquals("日本", roundTrip(BinaryCodec.of(String.class), "日本"));
+        assertEquals(Color.GREEN, roundTrip(BinaryCodec.of(Color.class), Color.GREEN));
+        assertEquals(2, BinaryCodec.of(Integer.class).encode(-64).length); // version and one byte
+    }
+
+    @Test
+    public void collections() {
+        BinaryCodec<List<Long>> longs = BinaryCodec.of(new TypeToken<List<Long>>() {});
+        List<Long> ids = Arrays.asList(1L, -2L, 1234567890123L);
+        assertEquals(ids, roundTrip(longs, ids));
+        assertEquals(Collections.emptyList(), roundTrip(longs, new ArrayList<Long>()));
+
+        BinaryCodec<Set<Color>> colors = BinaryCodec.of(new TypeToken<Set<Color>>() {});
+        Set<Color> set = new LinkedHashSet<>(Arrays.asList(Color.GREEN, Color.RED));
+        assertEquals(set, roundTrip(colors, set));
+
+        BinaryCodec<Map<String, Integer>> counts = BinaryCodec.of(new TypeToken<Map<String, Integer>>() {});
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put("", -1);
+        assertEquals(map, roundTrip(counts, map));
+
+        assertArrayEquals(new int[] {1, -1, Integer.MAX_VALUE}, roundTrip(BinaryCodec.of(int[].class), new int[] {1, -1, Integer.MAX_VALUE}));
+        assertArrayEquals(new long[] {Long.MIN_VALUE}, roundTrip(BinaryCodec.of(long[].class), new long[] {Long.MIN_VALUE}));
+    }
+
+    @Test
+    public void smallerThanJson() {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) list.add(i);
+        byte[] binary = BinaryCodec.of(new TypeToken<List<Integer>>() {}).encode(list);
+        String json = new Gson().toJson(list);
+        assertTrue(binary.length + " vs " + json.length(), 2 * binary.length < json.length());
+    }
+
+    @Test
+    public void unsupportedTypes() {
+        assertUnsupported(new TypeToken<List<List<String>>>() {});
+        assertUnsupported(new TypeToken<Map<Integer, String>>() {});
+        assertUnsupported(new TypeToken<Object>() {});
+    }
+
+    private static void assertUnsupported(TypeToken<?> type) {
+        try {
+            BinaryCodec.of(type);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullElements() {
+        BinaryCodec.of(new TypeToken<List<String>>() {}).encode(Arrays.asList("a", null));
+    }
+
+    @Test
+    public void malformedInput() {
+        BinaryCodec<List<Long>> codec = BinaryCodec.of(new TypeToken<List<Long>>() {});
+        byte[] bytes = codec.encode(Arrays.asList(1L, 2L));
+        for (byte[] malformed : new byte[][] {Arrays.copyOf(bytes, bytes.length - 1), Arrays.copyOf(bytes, bytes.length + 1), {2, 0}, {1, 100}}) {
+            try {
+                codec.decode(malformed);
+                fail(Arrays.toString(malformed));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
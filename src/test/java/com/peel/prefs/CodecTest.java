@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Codec}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class CodecTest {
+
+    private Context context;
+    private static final Gson gson = new Gson();
+    private SharedPreferences persistPrefs;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+        });
+    }
+
+    private static final class Address {
+        String city;
+        List<String> lines;
+        String note;
+    }
+
+    @Test
+    public void pojoStoredAsJson() {
+        Prefs prefs = new Prefs(context, gson);
+        Address address = new Address();
+        address.city = "Palo Alto";
+        address.lines = Arrays.asList("1 Main St");
+        TypedKey<Address> key = new TypedKey<>("address", Address.class, false);
+        prefs.put(key, address);
+        assertEquals(gson.toJson(address), persistPrefs.getString("address", null));
+        Address restored = prefs.get(key);
+        assertEquals("Palo Alto", restored.city);
+        assertEquals("1 Main St", restored.lines.get(0));
+    }
+
+    @Test
+    public void runtimeTypeUsedForWrites() {
+        Prefs prefs = new Prefs(context, gson);
+        TypedKey<List<Integer>> key = new TypedKey<>("list", new TypeToken<List<Integer>>() {});
+        List<Integer> list = new ArrayList<>(Arrays.asList(1, 2));
+        prefs.put(key, list);
+        assertEquals(gson.toJson(list), persistPrefs.getString("list", null));
+        prefs.put(key, Arrays.asList(3)); // a different runtime class
+        assertEquals("[3]", persistPrefs.getString("list", null));
+    }
+
+    @Test
+    public void gsonConfigurationHonored() {
+        Gson serializeNulls = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+        Prefs prefs = new Prefs(context, serializeNulls);
+        Address address = new Address();
+        address.city = "<Palo Alto>";
+        prefs.put(new TypedKey<>("address", Address.class), address);
+        assertEquals(serializeNulls.toJson(address), persistPrefs.getString("address", null));
+    }
+
+    @Test
+    public void codecResolvedOncePerKey() {
+        Prefs prefs = new Prefs(context, gson);
+        TypedKey<Address> key = new TypedKey<>("address", Address.class);
+        assertNull(prefs.get(key));
+        Codec<Address> codec = key.codec;
+        prefs.put(key, new Address());
+        assertSame(codec, key.codec);
+
+        // A key shared across Prefs with different Gson instances is resolved again
+        Gson other = new Gson();
+        new Prefs(context, other).get(key);
+        assertSame(other, key.codec.gson);
+    }
+
+    @Test
+    public void emptyJsonReadAsNull() {
+        Prefs prefs = new Prefs(context, gson);
+        persistPrefs.edit().putString("address", "").apply();
+        assertNull(prefs.get(new TypedKey<>("address", Address.class)));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ConcurrentValueCache}
+ *
+ * @author Inderjeet Singh
+ */
+public class ConcurrentValueCacheTest {
+
+    @Test
+    public void getPutRemove() {
+        ConcurrentValueCache cache = new ConcurrentValueCache(2);
+        assertNull(cache.get("a"));
+        cache.put("a", 1, 1);
+        assertEquals(1, cache.get("a"));
+        assertEquals(1, cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sizeBounded() {
+        ConcurrentValueCache cache = new ConcurrentValueCache(3);
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, i, 1);
+        }
+        assertEquals(3, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void recentlyReadEntriesSurviveEviction() {
+        ConcurrentValueCache cache = new ConcurrentValueCache(3);
+        cache.put("hot", 0, 1);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(0, cache.get("hot"));
+            cache.put("key" + i, i, 1);
+        }
+        assertEquals(0, cache.get("hot"));
+    }
+
+    @Test
+    public void byteBudget() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(1000);
+        for (int i = 0; i < 50; ++i) {
+            cache.put("flag" + i, true, 16);
+        }
+        assertEquals(50, cache.size());
+        assertEquals(800, cache.weight());
+        cache.put("blob", "large", 600);
+        assertTrue(cache.weight() <= 1000);
+        cache.put("flag0", false, 16); // replacing a value does not change the weight
+        assertTrue(cache.weight() <= 1000);
+        cache.clear();
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void valuesOverBudgetNotCached() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(100);
+        cache.put("a", "small", 10);
+        cache.put("a", "huge", 101);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void nullsRejected() {
+        try {
+            new ConcurrentValueCache(1).put("a", null, 1);
+            fail();
+        } catch (NullPointerException expected) {}
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final ConcurrentValueCache cache = new ConcurrentValueCache(16);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; ++t) {
+            final int thread = t;
+            new Thread() {
+                @Override public void run() {
+                    try {
+                        for (int i = 0; i < 10000; ++i) {
+                            String key = "key" + ((i * 31 + thread) % 64);
+                            cache.put(key, i, 1);
+                            cache.get(key);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 16 + 8); // puts racing past the bound are evicted by their own thread
+    }
+}
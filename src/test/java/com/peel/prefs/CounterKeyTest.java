@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link CounterKey}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class CounterKeyTest {
+
+    private static final CounterKey IMPRESSIONS = new CounterKey("impressions");
+    private static final CounterKey CLICKS = new CounterKey("clicks");
+
+    private Context context;
+    private Prefs prefs;
+    private int applyCount;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        });
+        prefs = new Prefs(context, new Gson());
+    }
+
+    @Test
+    public void incrementsAreWrittenOnFlush() {
+        for (int i = 0; i < 100; ++i) prefs.increment(IMPRESSIONS);
+        prefs.add(CLICKS, 5);
+        assertEquals(100, prefs.getCount(IMPRESSIONS));
+        assertEquals(0, applyCount);
+        assertNull(prefs.get(IMPRESSIONS));
+        prefs.flush();
+        assertEquals(1, applyCount);
+        assertEquals(100L, prefs.get(IMPRESSIONS).longValue());
+        assertEquals(5L, prefs.get(CLICKS).longValue());
+        prefs.flush(); // nothing changed
+        assertEquals(1, applyCount);
+    }
+
+    @Test
+    public void restartLoadsPersistedValue() {
+        prefs.add(IMPRESSIONS, 7);
+        prefs.flush();
+        Prefs restarted = new Prefs(context, new Gson());
+        restarted.increment(IMPRESSIONS);
+        assertEquals(8, restarted.getCount(IMPRESSIONS));
+    }
+
+    @Test
+    public void putAndRemoveResetCounter() {
+        prefs.add(IMPRESSIONS, 7);
+        prefs.put(IMPRESSIONS, 100L);
+        prefs.increment(IMPRESSIONS);
+        assertEquals(101, prefs.getCount(IMPRESSIONS));
+        prefs.remove(IMPRESSIONS);
+        assertEquals(0, prefs.getCount(IMPRESSIONS));
+    }
+
+    @Test(timeout = 10000)
+    public void periodicPersistence() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            prefs.enableCounterPersistence(executor, 10, TimeUnit.MILLISECONDS);
+            prefs.add(IMPRESSIONS, 3);
+            while (prefs.get(IMPRESSIONS) == null) Thread.sleep(5);
+            assertEquals(3L, prefs.get(IMPRESSIONS).longValue());
+            prefs.add(IMPRESSIONS, 2);
+            prefs.disableCounterPersistence();
+            assertEquals(5L, prefs.get(IMPRESSIONS).longValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void periodicPersistenceWithWriteBehind() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+            prefs.enableCounterPersistence(executor, 10, TimeUnit.MILLISECONDS);
+            prefs.add(IMPRESSIONS, 3);
+            while (!prefs.keys().contains(IMPRESSIONS.getName())) Thread.sleep(5);
+            assertEquals(0, applyCount); // pending with the other unwritten changes
+            assertEquals(3L, prefs.get(IMPRESSIONS).longValue());
+            prefs.disableCounterPersistence();
+            prefs.flush();
+            assertEquals(1, applyCount);
+            assertEquals(3L, prefs.get(IMPRESSIONS).longValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void flushDoesNotOverwritePut() {
+        prefs.add(IMPRESSIONS, 7);
+        prefs.put(IMPRESSIONS, 100L);
+        prefs.flush();
+        assertEquals(100L, prefs.get(IMPRESSIONS).longValue());
+        prefs.add(IMPRESSIONS, 2);
+        prefs.flush();
+        assertEquals(102L, prefs.get(IMPRESSIONS).longValue());
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentIncrements() throws Exception {
+        final int threads = 8;
+        final int iterations = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() {
+                        for (int i = 0; i < iterations; ++i) {
+                            prefs.increment(IMPRESSIONS);
+                            if (i % 1000 == 0) prefs.flush();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        prefs.flush();
+        assertEquals(threads * iterations, prefs.getCount(IMPRESSIONS));
+        assertEquals(threads * iterations, prefs.get(IMPRESSIONS).longValue());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#setExternalChangeTrackingEnabled(boolean)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class ExternalChangeTest {
+
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class);
+    private static final TypedKey<List<String>> ROOMS = new TypedKey<>("rooms", new TypeToken<List<String>>() {});
+
+    private Prefs prefs;
+    private SharedPreferences sharedPrefs;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext();
+        sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs = new Prefs(context, new Gson());
+        prefs.addListener(new Prefs.EventListener() {
+            @Override public <T> void onPut(TypedKey<T> key, T value) {
+                events.add("put " + key + "=" + value + " " + key.getTypeOfValue());
+            }
+            @Override public <T> void onRemove(TypedKey<T> key) {
+                events.add("remove " + key);
+            }
+        });
+        prefs.setExternalChangeTrackingEnabled(true);
+    }
+
+    @Test
+    public void externalWriteInvalidatesCache() {
+        prefs.put(COUNTRY, "US");
+        assertEquals("US", prefs.cache.get("country"));
+        sharedPrefs.edit().putString("country", "IN").apply();
+        assertNull(prefs.cache.get("country"));
+        assertEquals("IN", prefs.get(COUNTRY));
+    }
+
+    @Test
+    public void ownWritesAreNotReportedTwice() {
+        prefs.put(COUNTRY, "US");
+        prefs.put(COUNTRY, "US");
+        prefs.edit().put(ROOMS, Arrays.asList("kitchen")).remove(COUNTRY).apply();
+        assertEquals(Arrays.asList(
+                "put country=US class java.lang.String",
+                "put country=US class java.lang.String",
+                "put rooms=[kitchen] java.util.List<java.lang.String>",
+                "remove country"), events);
+        assertEquals(Arrays.asList("kitchen"), prefs.cache.get("rooms"));
+    }
+
+    @Test
+    public void externalChangesAreForwarded() {
+        prefs.put(ROOMS, Arrays.asList("kitchen"));
+        events.clear();
+        sharedPrefs.edit().putString("rooms", "[\"den\"]").putInt("legacyCount", 3).apply();
+        sharedPrefs.edit().remove("legacyCount").apply();
+        assertEquals(Arrays.asList(
+                "put rooms=[den] java.util.List<java.lang.String>",
+                "put legacyCount=3 class java.lang.Object",
+                "remove legacyCount"), events);
+    }
+
+    @Test
+    public void externalChangeAfterOwnWrite() {
+        prefs.put(COUNTRY, "US");
+        sharedPrefs.edit().putString("country", "IN").apply();
+        sharedPrefs.edit().putString("country", "US").apply(); // same as the last own write
+        assertEquals("US", prefs.get(COUNTRY));
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void noTrackingWhenDisabled() {
+        prefs.setExternalChangeTrackingEnabled(false);
+        prefs.put(COUNTRY, "US");
+        sharedPrefs.edit().putString("country", "IN").apply();
+        assertEquals("US", prefs.get(COUNTRY)); // stale
+        assertEquals(1, events.size());
+    }
+}
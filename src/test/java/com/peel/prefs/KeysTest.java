@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#keys()}, {@link Prefs#size()} and {@link Prefs#forEachKey(Prefs.KeyVisitor)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class KeysTest {
+
+    private Prefs prefs;
+    private SharedPreferences persistPrefs;
+    private int getAllCount;
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+            @Override public void onGetAll() {
+                ++getAllCount;
+            }
+        });
+        persistPrefs.edit().putString("a", "1").putInt("b", 2).apply();
+        prefs = new Prefs(context, new Gson());
+    }
+
+    @Test
+    public void fileIsReadOnce() {
+        assertEquals(2, prefs.size());
+        assertEquals(set("a", "b"), prefs.keys());
+        prefs.forEachKey(new Prefs.KeyVisitor() {
+            @Override public void visit(String name) {
+                assertTrue(name.equals("a") || name.equals("b"));
+            }
+        });
+        assertEquals(1, getAllCount);
+    }
+
+    @Test
+    public void writesUpdateKeys() {
+        Set<String> keys = prefs.keys();
+        prefs.put(new TypedKey<>("c", String.class), "3");
+        prefs.putLong(new LongKey("d"), 4L);
+        assertEquals(set("a", "b", "c", "d"), keys);
+        prefs.remove("a", String.class);
+        assertEquals(set("b", "c", "d"), keys);
+        prefs.edit().remove(new TypedKey<>("b", Integer.class)).put(new TypedKey<>("e", Integer.class), 5).apply();
+        assertEquals(set("c", "d", "e"), keys);
+        assertEquals(3, prefs.size());
+        prefs.clear();
+        assertEquals(0, prefs.size());
+        assertEquals(1, getAllCount);
+    }
+
+    @Test
+    public void keySetReadsTheFile() {
+        assertEquals(set("a", "b"), prefs.keys());
+        persistPrefs.edit().putString("c", "3").apply();
+        assertEquals(set("a", "b", "c"), prefs.keySet());
+    }
+
+    @Test
+    public void putNullRemovesKey() {
+        prefs.setAbsentKeyCachingEnabled(true);
+        TypedKey<String> a = new TypedKey<>("a", String.class);
+        TypedKey<String> absent = new TypedKey<>("absent", String.class);
+        prefs.put(a, null);
+        prefs.put(absent, null);
+        assertEquals(set("b"), prefs.keys());
+        assertEquals(1, prefs.size());
+        assertFalse(prefs.contains(a));
+        assertFalse(prefs.contains(absent));
+        assertFalse(persistPrefs.contains("a"));
+    }
+
+    @Test
+    public void pendingPutNullRemovesKey() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+            TypedKey<String> absent = new TypedKey<>("absent", String.class);
+            prefs.put(new TypedKey<>("a", String.class), null);
+            prefs.put(absent, null);
+            assertEquals(set("b"), prefs.keys());
+            assertEquals(1, prefs.size());
+            assertFalse(prefs.contains(absent));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loadIncludesPendingChanges() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+            prefs.remove("a", String.class);
+            prefs.put(new TypedKey<>("c", String.class), "3");
+            assertEquals(2, prefs.load());
+            assertEquals(set("b", "c"), prefs.keys());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void keysAreUnmodifiable() {
+        prefs.keys().remove("a");
+    }
+
+    @Test
+    public void pendingWritesAreVisible() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+            prefs.put(new TypedKey<>("c", String.class), "3");
+            prefs.remove("a", String.class);
+            assertEquals(set("b", "c"), prefs.keys());
+            assertFalse(persistPrefs.contains("c"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void externalWritesVisibleWhenTracked() {
+        prefs.setExternalChangeTrackingEnabled(true);
+        assertEquals(2, prefs.size());
+        persistPrefs.edit().putString("c", "3").remove("a").apply();
+        assertEquals(set("b", "c"), prefs.keys());
+    }
+
+    private static Set<String> set(String... names) {
+        Set<String> set = new HashSet<>();
+        for (String name : names) set.add(name);
+        return set;
+    }
+}
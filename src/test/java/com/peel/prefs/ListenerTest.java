@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for key and tag scoped {@link Prefs.EventListener}s
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class ListenerTest {
+
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class);
+    private static final TypedKey<String> USER_NAME = new TypedKey<>("userName", String.class, "session");
+    private static final IntKey USER_AGE = new IntKey("userAge", "session");
+
+    private Prefs prefs;
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        prefs = new Prefs(AndroidFixtures.createMockContext(), new Gson());
+    }
+
+    @Test
+    public void keyListener() {
+        Prefs.EventListener listener = new RecordingListener("key");
+        prefs.addListener(COUNTRY, listener);
+        prefs.put(USER_NAME, "john");
+        prefs.put(COUNTRY, "US");
+        prefs.put("country", String.class, "IN");
+        prefs.remove(COUNTRY);
+        assertEquals(Arrays.asList("key: put country=US", "key: put country=IN", "key: remove country"), events);
+        prefs.removeListener(COUNTRY, listener);
+        prefs.put(COUNTRY, "US");
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void tagListener() {
+        prefs.addListener("session", new RecordingListener("session"));
+        prefs.addListener(new RecordingListener("all"));
+        prefs.put(COUNTRY, "US");
+        prefs.putInt(USER_AGE, 30);
+        prefs.edit().put(USER_NAME, "john").apply();
+        assertEquals(Arrays.asList(
+                "all: put country=US",
+                "all: put userAge=30", "session: put userAge=30",
+                "all: put userName=john", "session: put userName=john"), events);
+    }
+
+    @Test
+    public void asynchronousDispatch() {
+        final List<Runnable> tasks = new ArrayList<>();
+        prefs.setListenerExecutor(new Executor() {
+            @Override public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        prefs.addListener(new RecordingListener("all"));
+        prefs.put(COUNTRY, "US");
+        assertTrue(events.isEmpty());
+        for (Runnable task : tasks) task.run();
+        assertEquals(Arrays.asList("all: put country=US"), events);
+    }
+
+    @Test(timeout = 10000)
+    public void addListenersWhilePutting() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread() {
+            @Override public void run() {
+                try {
+                    for (int i = 0; i < 20000; ++i) prefs.put(COUNTRY, "US");
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) {
+            Prefs.EventListener listener = new RecordingListener("x");
+            prefs.addListener(listener);
+            prefs.removeListener(listener);
+            events.clear();
+        }
+        writer.join();
+        assertEquals(null, failure.get());
+    }
+
+    private final class RecordingListener implements Prefs.EventListener {
+        private final String name;
+        RecordingListener(String name) {
+            this.name = name;
+        }
+        @Override public <T> void onPut(TypedKey<T> key, T value) {
+            events.add(name + ": put " + key + "=" + value);
+        }
+        @Override public <T> void onRemove(TypedKey<T> key) {
+            events.add(name + ": remove " + key);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Unit tests for {@link LogStore}
+ *
+ * @author Inderjeet Singh
+ */
+public class LogStoreTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LogStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "prefs.log");
+        store = new LogStore(file, DIRECT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new LogStore(file, DIRECT);
+    }
+
+    @Test
+    public void allTypesSurviveReopen() throws IOException {
+        store.edit()
+            .putString("string", "été")
+            .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+            .putInt("int", -1)
+            .putLong("long", Long.MAX_VALUE)
+            .putFloat("float", 1.5f)
+            .putBoolean("boolean", true)
+            .putBytes("bytes", new byte[] {1, -2, 3})
+            .commit();
+        reopen();
+        assertEquals("été", store.getString("string", null));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), store.getStringSet("set", null));
+        assertEquals(-1, store.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, store.getLong("long", 0));
+        assertEquals(1.5f, store.getFloat("float", 0), 0);
+        assertTrue(store.getBoolean("boolean", false));
+        assertArrayEquals(new byte[] {1, -2, 3}, store.getBytes("bytes"));
+        assertEquals(7, store.getAll().size());
+        assertEquals(5, store.getInt("absent", 5));
+    }
+
+    @Test
+    public void removeAndClearSurviveReopen() throws IOException {
+        store.edit().putInt("a", 1).putInt("b", 2).apply();
+        store.edit().remove("a").putString("b", null).putInt("c", 3).apply();
+        reopen();
+        assertEquals(Collections.singleton("c"), store.getAll().keySet());
+        store.edit().clear().putInt("d", 4).apply();
+        reopen();
+        assertEquals(Collections.singleton("d"), store.getAll().keySet());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void wrongType() {
+        store.edit().putString("a", "1").apply();
+        store.getInt("a", 0);
+    }
+
+    @Test
+    public void partialRecordIsDiscarded() throws IOException {
+        store.edit().putInt("a", 1).apply();
+        long size = file.length();
+        store.edit().putString("b", "a long enough value").apply();
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3); // as if the process died during the write
+        }
+        store = new LogStore(file, DIRECT);
+        assertEquals(1, store.getInt("a", 0));
+        assertFalse(store.contains("b"));
+        assertEquals(size, file.length());
+        store.edit().putInt("c", 3).apply();
+        reopen();
+        assertEquals(3, store.getInt("c", 0));
+    }
+
+    @Test
+    public void writeCostDoesNotDependOnFileSize() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) value.append('x');
+        for (int i = 0; i < 100; ++i) {
+            store.edit().putString("config" + i, value.toString()).apply();
+        }
+        long size = store.fileSize();
+        store.edit().putInt("counter", 1).apply();
+        assertTrue(store.fileSize() - size < 32);
+    }
+
+    @Test
+    public void compactsOnceMostOfTheFileIsGarbage() throws IOException {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        store.edit().putInt("other", 42).apply();
+        for (int i = 0; i < 200; ++i) {
+            store.edit().putString("key", value + i).apply();
+            assertTrue(store.garbage() < LogStore.MIN_COMPACTION_GARBAGE + 2 * value.length());
+        }
+        assertTrue(store.fileSize() < LogStore.MIN_COMPACTION_GARBAGE + 4 * value.length());
+        assertEquals(value + 199, store.getString("key", null));
+        store.compact();
+        assertEquals(0, store.garbage());
+        assertEquals(file.length(), store.fileSize());
+        reopen();
+        assertEquals(value + 199, store.getString("key", null));
+        assertEquals(42, store.getInt("other", 0));
+        assertEquals(0, store.garbage());
+    }
+
+    @Test
+    public void rejectedCompactionIsScheduledByNextWrite() throws IOException {
+        store.close();
+        final boolean[] rejecting = {true};
+        store = new LogStore(file, new Executor() {
+            @Override public void execute(Runnable command) {
+                if (rejecting[0]) throw new RejectedExecutionException();
+                command.run();
+            }
+        });
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 200; ++i) {
+            assertTrue(store.edit().putString("key", value + i).commit());
+        }
+        assertTrue(store.garbage() > LogStore.MIN_COMPACTION_GARBAGE);
+        rejecting[0] = false;
+        store.edit().putString("key", value).apply();
+        assertEquals(0, store.garbage());
+        assertEquals(value, store.getString("key", null));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentWritesDuringCompaction() throws Exception {
+        store.close();
+        final ExecutorService compactor = Executors.newSingleThreadExecutor();
+        store = new LogStore(file, compactor);
+        final int threads = 4;
+        final int iterations = 2000;
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final String name = "key" + t;
+                futures.add(writers.submit(new Callable<Void>() {
+                    @Override public Void call() {
+                        for (int i = 0; i < iterations; ++i) {
+                            store.edit().putString(name, "value of some length " + i).putInt(name + "i", i).apply();
+                            assertEquals("value of some length " + i, store.getString(name, null));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) future.get();
+        } finally {
+            writers.shutdown();
+            compactor.shutdown();
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertTrue(store.fileSize() < 4 * LogStore.MIN_COMPACTION_GARBAGE);
+        reopen();
+        for (int t = 0; t < threads; ++t) {
+            assertEquals("value of some length " + (iterations - 1), store.getString("key" + t, null));
+            assertEquals(iterations - 1, store.getInt("key" + t + "i", 0));
+        }
+    }
+
+    @Test
+    public void prefsWithLogStore() throws IOException {
+        TypedKey<Map<String, Integer>> map = new TypedKey<>("map", new TypeToken<Map<String, Integer>>() {});
+        Prefs prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        prefs.put(map, Collections.singletonMap("a", 1));
+        prefs.putLong(new LongKey("long"), 5L);
+        reopen();
+        prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        assertEquals(Collections.singletonMap("a", 1), prefs.get(map));
+        assertEquals(5L, prefs.getLong(new LongKey("long")));
+        assertNull(prefs.get(new TypedKey<>("absent", String.class)));
+        assertEquals(2, prefs.size());
+    }
+
+    @Test
+    public void failedWritesAreDroppedFromPrefs() throws IOException {
+        Prefs prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        TypedKey<String> name = new TypedKey<>("name", String.class, true);
+        TypedKey<String> other = new TypedKey<>("other", String.class, true);
+        prefs.put(name, "a");
+        assertEquals("a", store.getString("name", null)); // decoded, so that it can be read once the file is closed
+        store.close(); // fails all writes
+        prefs.put(name, "b");
+        prefs.put(other, "x");
+        assertEquals("a", prefs.get(name));
+        assertFalse(prefs.contains(other));
+        assertEquals(Collections.singleton("name"), prefs.keys());
+        assertFalse(store.edit().putString("other", "x").commit());
+    }
+
+    @Test
+    public void listenersAreNotToldOfFailedWrites() throws IOException {
+        Prefs prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        TypedKey<String> name = new TypedKey<>("name", String.class, true);
+        IntKey count = new IntKey("count");
+        prefs.put(name, "a");
+        prefs.putInt(count, 1);
+        store.getAll(); // decodes all values, so that they can be read once the file is closed
+        final List<String> events = new ArrayList<>();
+        prefs.addListener(new Prefs.EventListener() {
+            @Override public <T> void onPut(TypedKey<T> key, T value) {
+                events.add(key.getName() + "=" + value);
+            }
+            @Override public <T> void onRemove(TypedKey<T> key) {
+                events.add(key.getName() + " removed");
+            }
+        });
+        store.close(); // fails all writes
+        prefs.put(name, "b");
+        prefs.putInt(count, 2);
+        prefs.remove(name);
+        prefs.edit().put(name, "c").apply();
+        assertEquals(Arrays.asList("name=a", "count=1", "name=a", "name=a"), events);
+        assertEquals("a", prefs.get(name));
+        assertEquals(1, prefs.getInt(count, 0));
+    }
+}
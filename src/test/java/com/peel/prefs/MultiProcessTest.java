@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#enableMultiProcess(File)}. Two {@link Prefs} instances with
+ * their own caches stand in for two processes.
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class MultiProcessTest {
+
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class);
+    private static final TypedKey<String> CITY = new TypedKey<>("city", String.class);
+
+    private File stampFile;
+    private Prefs app;
+    private Prefs sync;
+    private int getAllCount;
+
+    @Before
+    public void setUp() throws IOException {
+        stampFile = File.createTempFile("prefs", ".stamp");
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onGetAll() {
+                ++getAllCount;
+            }
+        });
+        Gson gson = new Gson();
+        app = new Prefs(context, gson);
+        sync = new Prefs(context, gson);
+        app.enableMultiProcess(stampFile);
+        sync.enableMultiProcess(stampFile);
+    }
+
+    @After
+    public void tearDown() {
+        app.disableMultiProcess();
+        sync.disableMultiProcess();
+        stampFile.delete();
+    }
+
+    @Test
+    public void changedKeysAreInvalidated() {
+        app.put(COUNTRY, "US");
+        app.put(CITY, "Austin");
+        sync.put(COUNTRY, "IN");
+        assertEquals("IN", app.get(COUNTRY));
+        assertNull(app.cache.get("country"));
+        assertEquals("Austin", app.cache.get("city")); // not changed by the other process
+    }
+
+    @Test
+    public void changesToKnownKeysDoNotReadTheFile() {
+        app.put(COUNTRY, "US");
+        sync.put(COUNTRY, "IN"); // the file is read once, to find the name that is new to sync
+        getAllCount = 0;
+        app.put(COUNTRY, "UK");
+        assertEquals("UK", sync.get(COUNTRY));
+        sync.put(COUNTRY, "IN");
+        assertEquals("IN", app.get(COUNTRY));
+        assertEquals(0, getAllCount);
+    }
+
+    @Test
+    public void keysAddedByOtherProcessesAreIndexed() {
+        app.put(COUNTRY, "US");
+        sync.put(CITY, "Austin");
+        assertEquals(new HashSet<>(Arrays.asList("country", "city")), app.keys());
+    }
+
+    @Test
+    public void ownWritesStayCached() {
+        app.put(COUNTRY, "US");
+        app.put(CITY, "Austin");
+        assertEquals("US", app.get(COUNTRY));
+        assertEquals("US", app.cache.get("country"));
+        assertEquals("Austin", app.cache.get("city"));
+    }
+
+    @Test
+    public void removeInvalidatesOnlyTheRemovedKey() {
+        app.put(COUNTRY, "US");
+        app.put(CITY, "Austin");
+        assertEquals(2, app.size()); // each reads the file once, to load its key index
+        assertEquals(2, sync.size());
+        getAllCount = 0;
+        sync.remove(COUNTRY);
+        assertFalse(app.contains(COUNTRY));
+        assertEquals(Collections.singleton("city"), app.keys());
+        assertEquals("Austin", app.cache.get("city"));
+        assertEquals(0, getAllCount);
+    }
+
+    @Test
+    public void clearInvalidatesAll() {
+        app.put(CITY, "Austin");
+        sync.clear();
+        assertFalse(app.contains(CITY));
+        assertNull(app.cache.get("city"));
+    }
+
+    @Test
+    public void logOverflowInvalidatesAll() {
+        app.put(CITY, "Austin");
+        Prefs.Batch batch = sync.edit();
+        for (int i = 0; i <= ProcessSync.SLOTS; ++i) {
+            batch.put(new TypedKey<>("key" + i, Integer.class), i);
+        }
+        batch.apply();
+        app.get(COUNTRY);
+        assertNull(app.cache.get("city"));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.SharedPreferences;
+
+/**
+ * Unit tests for {@link PrefsStore} and {@link SharedPreferencesStore}. These run without
+ * PowerMock, since a {@link Prefs} created with a store needs no {@code Context}.
+ *
+ * @author Inderjeet Singh
+ */
+public class PrefsStoreTest {
+
+    private SharedPreferences sharedPrefs;
+    private PrefsStore store;
+    private Prefs prefs;
+
+    @Before
+    public void setUp() {
+        sharedPrefs = AndroidFixtures.createMockSharedPreferences(null, null);
+        store = new SharedPreferencesStore(sharedPrefs);
+        prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+    }
+
+    @Test
+    public void prefsWithStore() {
+        TypedKey<List<String>> list = new TypedKey<>("list", new TypeToken<List<String>>() {});
+        IntKey count = new IntKey("count");
+        prefs.put(list, Arrays.asList("a", "b"));
+        prefs.putInt(count, 3);
+        assertEquals(Arrays.asList("a", "b"), prefs.get(list));
+        assertEquals(3, prefs.getInt(count));
+        assertEquals("[\"a\",\"b\"]", sharedPrefs.getString("list", null));
+        assertEquals(2, prefs.size());
+        prefs.remove(list);
+        assertFalse(prefs.contains(list));
+        assertEquals(Collections.singleton("count"), prefs.keys());
+        assertNull(prefs.context());
+    }
+
+    @Test
+    public void bytesAreStoredAsBase64() {
+        store.edit().putBytes("foobar", "foobar".getBytes()).putBytes("fo", "fo".getBytes()).apply();
+        assertEquals("Zm9vYmFy", sharedPrefs.getString("foobar", null));
+        assertEquals("Zm8=", sharedPrefs.getString("fo", null));
+        assertArrayEquals("fo".getBytes(), store.getBytes("fo"));
+        assertNull(store.getBytes("absent"));
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        for (int length = 0; length < 10; ++length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; ++i) bytes[i] = (byte) (i * 97 - 128);
+            store.edit().putBytes("bytes", bytes).apply();
+            assertArrayEquals(bytes, store.getBytes("bytes"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBase64() {
+        sharedPrefs.edit().putString("bytes", "Zm9v!mFy").apply();
+        store.getBytes("bytes");
+    }
+
+    @Test
+    public void changeListeners() {
+        final List<String> changes = new ArrayList<>();
+        PrefsStore.ChangeListener listener = new PrefsStore.ChangeListener() {
+            @Override public void onChanged(PrefsStore changed, String name) {
+                assertTrue(changed == store);
+                changes.add(name);
+            }
+        };
+        store.addChangeListener(listener);
+        sharedPrefs.edit().putInt("a", 1).apply();
+        store.removeChangeListener(listener);
+        sharedPrefs.edit().putInt("b", 1).apply();
+        assertEquals(Collections.singletonList("a"), changes);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void defaultMultiProcessNeedsContext() throws Exception {
+        prefs.enableMultiProcess();
+    }
+}
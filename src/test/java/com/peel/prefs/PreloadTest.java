@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#preload(Iterable, Executor)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class PreloadTest {
+
+    private static final TypedKey<Catalog> CATALOG = new TypedKey<>("catalog", Catalog.class);
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class);
+    private static final TypedKey<Integer> AGE = new TypedKey<>("age", Integer.class, false);
+
+    private static final AtomicInteger decodes = new AtomicInteger();
+    private static volatile CountDownLatch decodeGate;
+
+    private Context context;
+    private Prefs prefs;
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor queue = new Executor() {
+        @Override public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        decodes.set(0);
+        decodeGate = null;
+        Gson gson = new GsonBuilder().registerTypeAdapter(Catalog.class, new CatalogAdapter()).create();
+        context = AndroidFixtures.createMockContext();
+        prefs = new Prefs(context, gson);
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+            .putString("catalog", "\"movies\"")
+            .putString("country", "US")
+            .putInt("age", 30)
+            .apply();
+    }
+
+    @Test
+    public void preloadInBackground() throws Exception {
+        Future<Void> future = prefs.preload(Arrays.asList(CATALOG, COUNTRY, AGE), queue);
+        assertNull(prefs.cache.get("catalog"));
+        assertFalse(future.isDone());
+        runTasks();
+        assertTrue(future.isDone());
+        assertEquals("movies", ((Catalog) prefs.cache.get("catalog")).name);
+        assertEquals("US", prefs.cache.get("country"));
+        assertNull(prefs.cache.get("age")); // not cacheable
+        assertEquals("movies", prefs.get(CATALOG).name);
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    public void callerReadsKeyBeforePreloadGetsToIt() {
+        prefs.preload(Arrays.asList(COUNTRY, CATALOG), queue);
+        assertEquals("movies", prefs.get(CATALOG).name);
+        assertEquals(1, decodes.get());
+        assertNull(prefs.cache.get("country"));
+        runTasks();
+        assertEquals("US", prefs.cache.get("country"));
+        assertEquals("movies", prefs.get(CATALOG).name);
+        assertEquals(1, decodes.get()); // not decoded again
+    }
+
+    @Test(timeout = 5000)
+    public void callerWaitsOnlyForItsKey() throws Exception {
+        decodeGate = new CountDownLatch(1);
+        final CountDownLatch decodeStarted = new CountDownLatch(1);
+        Future<Void> future = prefs.preload(Arrays.asList(CATALOG, COUNTRY), new Executor() {
+            @Override public void execute(Runnable task) {
+                Thread thread = new Thread(task);
+                thread.start();
+                decodeStarted.countDown();
+            }
+        });
+        decodeStarted.await();
+        assertEquals("US", prefs.get(COUNTRY)); // while the catalog may still be decoding
+        decodeGate.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals("movies", prefs.get(CATALOG).name);
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    public void writeBeforePreloadWins() {
+        prefs.preload(Arrays.asList(COUNTRY), queue);
+        prefs.put(COUNTRY, "IN");
+        assertEquals("IN", prefs.get(COUNTRY));
+        runTasks();
+        assertEquals("IN", prefs.get(COUNTRY));
+        assertEquals("IN", prefs.cache.get("country"));
+    }
+
+    @Test
+    public void sharedPrefsInitWithPreload() {
+        SharedPrefs.TestAccess.init(prefs); // reset earlier state
+        SharedPrefs.init(Arrays.asList(CATALOG), queue, prefs);
+        runTasks();
+        assertEquals("movies", ((Catalog) prefs.cache.get("catalog")).name);
+    }
+
+    private void runTasks() {
+        for (Runnable task : tasks) task.run();
+        tasks.clear();
+    }
+
+    private static final class Catalog {
+        final String name;
+        Catalog(String name) {
+            this.name = name;
+        }
+    }
+
+    /** Counts decodes, and holds them while a gate is set */
+    private static final class CatalogAdapter extends TypeAdapter<Catalog> {
+        @Override public void write(JsonWriter out, Catalog value) throws IOException {
+            out.value(value.name);
+        }
+        @Override public Catalog read(JsonReader in) throws IOException {
+            CountDownLatch gate = decodeGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            decodes.incrementAndGet();
+            return new Catalog(in.nextString());
+        }
+    }
+}
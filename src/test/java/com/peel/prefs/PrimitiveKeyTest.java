@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for the primitive accessors of {@link Prefs}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class PrimitiveKeyTest {
+    private static final double TOLERANCE = 0.0001d;
+
+    private Context context;
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private SharedPreferences persistPrefs;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+        });
+        prefs = new Prefs(context, gson);
+    }
+
+    @Test
+    public void defaultValues() {
+        assertEquals(0, prefs.getInt(new IntKey("int")));
+        assertEquals(5, prefs.getInt(new IntKey("int"), 5));
+        assertEquals(0L, prefs.getLong(new LongKey("long")));
+        assertFalse(prefs.getBoolean(new BooleanKey("boolean")));
+        assertTrue(prefs.getBoolean(new BooleanKey("boolean"), true));
+        assertEquals(0f, prefs.getFloat(new FloatKey("float")), TOLERANCE);
+        assertEquals(1.5d, prefs.getDouble(new DoubleKey("double"), 1.5d), TOLERANCE);
+    }
+
+    @Test
+    public void putStoresPrimitives() {
+        prefs.putInt(new IntKey("int"), 1);
+        prefs.putLong(new LongKey("long"), 2L);
+        prefs.putBoolean(new BooleanKey("boolean"), true);
+        prefs.putFloat(new FloatKey("float"), 1.1f);
+        prefs.putDouble(new DoubleKey("double"), 2.2d);
+        assertEquals(1, persistPrefs.getInt("int", 0));
+        assertEquals(2L, persistPrefs.getLong("long", 0L));
+        assertTrue(persistPrefs.getBoolean("boolean", false));
+        assertEquals(1.1f, persistPrefs.getFloat("float", 0f), TOLERANCE);
+        assertEquals(2.2d, persistPrefs.getFloat("double", 0f), TOLERANCE);
+    }
+
+    @Test
+    public void interoperatesWithTypedAccessors() {
+        IntKey key = new IntKey("int");
+        prefs.put(key, 1);
+        assertEquals(1, prefs.getInt(key));
+        prefs.putInt(key, 2);
+        assertEquals(2, (int) prefs.get(key)); // the boxed value cached by put() is not served
+    }
+
+    @Test
+    public void restoreFromString() {
+        persistPrefs.edit().putString("int", "\"3\"").apply();
+        assertEquals(3, prefs.getInt(new IntKey("int")));
+        persistPrefs.edit().putString("long", "4").apply();
+        assertEquals(4L, prefs.getLong(new LongKey("long")));
+        persistPrefs.edit().putString("double", "1.5").apply();
+        assertEquals(1.5d, prefs.getDouble(new DoubleKey("double")), TOLERANCE);
+    }
+
+    @Test
+    public void listenersNotified() {
+        final Object[] received = new Object[1];
+        prefs.addListener(new Prefs.EventListener() {
+            @Override public <T> void onPut(TypedKey<T> key, T value) {
+                received[0] = value;
+            }
+            @Override public <T> void onRemove(TypedKey<T> key) {}
+        });
+        assertNull(received[0]);
+        prefs.putLong(new LongKey("long"), 7L);
+        assertEquals(7L, received[0]);
+    }
+
+    @Test
+    public void sharedPrefsFacade() {
+        SharedPrefs.TestAccess.init(context, gson);
+        IntKey key = new IntKey("int");
+        SharedPrefs.putInt(key, 9);
+        assertEquals(9, SharedPrefs.getInt(key));
+        assertEquals(9, (int) SharedPrefs.get(key));
+    }
+}
@@ -18,8 +18,16 @@ package com.peel.prefs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -105,6 +113,31 @@ public class SharedPrefsTest {
         assertEquals("1", SharedPrefs.get(key));
     }
 
+    @Test
+    public void testInitWithParallelLoad() throws Exception {
+        Context context = AndroidFixtures.createMockContext(null, "my_props1", "my_props2");
+        context.getSharedPreferences("my_props1", Context.MODE_PRIVATE).edit().putInt("a", 1).putInt("b", 2).apply();
+        context.getSharedPreferences("my_props2", Context.MODE_PRIVATE).edit().putInt("c", 3).apply();
+        final Map<String, Integer> keyCounts = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> loaded = SharedPrefs.TestAccess.init(executor, new SharedPrefs.LoadListener() {
+                @Override public void onLoad(String prefsFileName, long loadTimeMillis, int keyCount) {
+                    assertTrue(loadTimeMillis >= 0);
+                    keyCounts.put(String.valueOf(prefsFileName), keyCount);
+                }
+            }, new Prefs(context, gson), new Prefs(context, gson, "my_props1", 2), new Prefs(context, gson, "my_props2", 3));
+            loaded.get(5, TimeUnit.SECONDS);
+            assertTrue(loaded.isDone());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, keyCounts.size());
+        assertEquals(0, keyCounts.get("null").intValue());
+        assertEquals(2, keyCounts.get("my_props1").intValue());
+        assertEquals(1, keyCounts.get("my_props2").intValue());
+    }
+
     @Test
     public void testInitWithDuplicateDefaultPrefs() {
         Context context = AndroidFixtures.createMockContext(null, "my_props1");
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link TypedKey#withSkipUnchangedWrites(boolean)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class SkipUnchangedWritesTest {
+
+    private static final TypedKey<String> COUNTRY = new TypedKey<>("country", String.class).withSkipUnchangedWrites(true);
+    private static final TypedKey<List<String>> ROOMS = new TypedKey<>("rooms", new TypeToken<List<String>>() {}, null, false)
+            .withSkipUnchangedWrites(true);
+    private static final IntKey AGE = (IntKey) new IntKey("age").withSkipUnchangedWrites(true);
+    private static final DoubleKey PRICE = (DoubleKey) new DoubleKey("price").withSkipUnchangedWrites(true);
+    private static final TypedKey<String> CITY = new TypedKey<>("city", String.class);
+
+    private Prefs prefs;
+    private int applyCount;
+    private int eventCount;
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        });
+        prefs = new Prefs(context, new Gson());
+        prefs.addListener(new Prefs.EventListener() {
+            @Override public <T> void onPut(TypedKey<T> key, T value) {
+                ++eventCount;
+            }
+            @Override public <T> void onRemove(TypedKey<T> key) {
+                ++eventCount;
+            }
+        });
+    }
+
+    @Test
+    public void cachedValue() {
+        prefs.put(COUNTRY, "US");
+        prefs.put(COUNTRY, "US");
+        assertEquals(1, applyCount);
+        assertEquals(1, eventCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+        prefs.put(COUNTRY, "IN");
+        assertEquals(2, applyCount);
+        assertEquals("IN", prefs.get(COUNTRY));
+    }
+
+    @Test
+    public void storedJson() {
+        prefs.put(ROOMS, Arrays.asList("kitchen", "den"));
+        prefs.put(ROOMS, new ArrayList<>(Arrays.asList("kitchen", "den")));
+        assertEquals(1, applyCount);
+        prefs.put(ROOMS, Arrays.asList("den"));
+        assertEquals(2, applyCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+    }
+
+    @Test
+    public void storedPrimitive() {
+        prefs.putInt(AGE, 30);
+        prefs.putInt(AGE, 30);
+        prefs.putInt(AGE, 31);
+        assertEquals(2, applyCount);
+        assertEquals(2, eventCount);
+        assertEquals(31, prefs.getInt(AGE));
+    }
+
+    @Test
+    public void storedDouble() {
+        prefs.putDouble(PRICE, 0.1); // not exact as a float
+        prefs.putDouble(PRICE, 0.1);
+        assertEquals(1, applyCount);
+        prefs.putDouble(PRICE, 0.2);
+        assertEquals(2, applyCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+    }
+
+    @Test
+    public void nullValue() {
+        prefs.put(COUNTRY, null);
+        assertEquals(0, applyCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+    }
+
+    @Test
+    public void notSkippedByDefault() {
+        prefs.put(CITY, "Austin");
+        prefs.put(CITY, "Austin");
+        assertEquals(2, applyCount);
+        assertEquals(0, prefs.getSkippedWriteCount());
+    }
+
+    @Test
+    public void batch() {
+        prefs.put(COUNTRY, "US");
+        eventCount = 0;
+        prefs.edit().put(COUNTRY, "US").put(CITY, "Austin").apply();
+        assertEquals(1, eventCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+    }
+}
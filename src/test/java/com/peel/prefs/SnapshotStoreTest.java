@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.Gson;
+
+/**
+ * Unit tests for {@link SnapshotStore}
+ *
+ * @author Inderjeet Singh
+ */
+public class SnapshotStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private final List<Runnable> writes = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override public void execute(Runnable command) {
+            writes.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "config.snapshot");
+    }
+
+    private void runWrites() {
+        for (Runnable write : writes) write.run();
+        writes.clear();
+    }
+
+    @Test
+    public void readsAllTypes() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("string", "été");
+        values.put("set", new HashSet<>(Arrays.asList("a", "b")));
+        values.put("int", -1);
+        values.put("long", Long.MIN_VALUE);
+        values.put("float", 2.5f);
+        values.put("boolean", true);
+        values.put("bytes", new byte[] {0, -1});
+        SnapshotStore.write(file, values);
+        SnapshotStore store = new SnapshotStore(file, executor);
+        assertEquals("été", store.getString("string", null));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), store.getStringSet("set", null));
+        assertEquals(-1, store.getInt("int", 0));
+        assertEquals(Long.MIN_VALUE, store.getLong("long", 0));
+        assertEquals(2.5f, store.getFloat("float", 0), 0);
+        assertTrue(store.getBoolean("boolean", false));
+        assertArrayEquals(new byte[] {0, -1}, store.getBytes("bytes"));
+        assertEquals("x", store.getString("absent", "x"));
+        assertFalse(store.contains("absent"));
+        assertEquals(values.keySet(), store.getAll().keySet());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void wrongType() throws IOException {
+        SnapshotStore.write(file, Collections.singletonMap("a", "1"));
+        new SnapshotStore(file, executor).getInt("a", 0);
+    }
+
+    @Test
+    public void binarySearch() throws IOException {
+        Random random = new Random(42);
+        Map<String, Object> values = new HashMap<>();
+        values.put("", 0);
+        values.put("a", 1);
+        values.put("ab", 2);
+        values.put("é", 3); // sorts after all ASCII names
+        for (int i = 0; i < 2000; ++i) {
+            values.put(Long.toString(random.nextLong(), 36), i);
+        }
+        SnapshotStore.write(file, values);
+        SnapshotStore store = new SnapshotStore(file, executor);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            assertEquals(entry.getValue(), store.getInt(entry.getKey(), -1));
+        }
+        assertFalse(store.contains("aa"));
+        assertFalse(store.contains("abc"));
+        assertFalse(store.contains("zzzzzzzzzzzzzzzz"));
+    }
+
+    @Test
+    public void changesAreVisibleBeforeTheyAreWritten() throws IOException {
+        SnapshotStore.write(file, Collections.singletonMap("a", 1));
+        SnapshotStore store = new SnapshotStore(file, executor);
+        store.edit().putInt("b", 2).remove("a").apply();
+        assertEquals(2, store.getInt("b", 0));
+        assertFalse(store.contains("a"));
+        assertFalse(new SnapshotStore(file, executor).contains("b"));
+        runWrites();
+        SnapshotStore reopened = new SnapshotStore(file, executor);
+        assertEquals(Collections.singleton("b"), reopened.getAll().keySet());
+        assertEquals(2, reopened.getInt("b", 0));
+    }
+
+    @Test
+    public void clearAndCommit() throws IOException {
+        SnapshotStore.write(file, Collections.singletonMap("a", 1));
+        SnapshotStore store = new SnapshotStore(file, executor);
+        store.edit().clear().putString("b", "2").commit();
+        assertEquals(Collections.singleton("b"), store.getAll().keySet());
+        assertEquals(Collections.singleton("b"), new SnapshotStore(file, executor).getAll().keySet());
+        store.edit().clear().apply();
+        assertFalse(store.contains("b"));
+        store.close();
+        assertTrue(new SnapshotStore(file, executor).getAll().isEmpty());
+    }
+
+    @Test(timeout = 60000)
+    public void clearDuringWriteIsKept() throws Exception {
+        final SnapshotStore store = new SnapshotStore(file, executor);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread() {
+            @Override public void run() {
+                try {
+                    while (!done.get()) store.writeChanges();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        try {
+            for (int i = 0; i < 5000; ++i) {
+                store.edit().clear().putInt("a", 1).apply(); // the same change, before and after a clear
+                assertEquals(1, store.getInt("a", 0));
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+        store.close();
+        assertEquals(1, new SnapshotStore(file, executor).getInt("a", 0));
+    }
+
+    @Test
+    public void missingFileIsEmpty() throws IOException {
+        SnapshotStore store = new SnapshotStore(file, executor);
+        assertTrue(store.getAll().isEmpty());
+        store.edit().putLong("a", 1L).commit();
+        assertEquals(1L, new SnapshotStore(file, executor).getLong("a", 0));
+    }
+
+    @Test
+    public void reloadReplacedFile() throws IOException {
+        SnapshotStore.write(file, Collections.singletonMap("version", 1));
+        SnapshotStore store = new SnapshotStore(file, executor);
+        SnapshotStore.write(file, Collections.singletonMap("version", 2));
+        assertEquals(1, store.getInt("version", 0));
+        store.reload();
+        assertEquals(2, store.getInt("version", 0));
+    }
+
+    @Test
+    public void prefsWithSnapshotStore() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("servers", "[\"a.example.com\",\"b.example.com\"]");
+        values.put("timeout", 30);
+        SnapshotStore.write(file, values);
+        Prefs prefs = new Prefs(new SnapshotStore(file, executor), new Gson(), null, new ConcurrentValueCache(25));
+        TypedKey<String[]> servers = new TypedKey<>("servers", String[].class);
+        assertArrayEquals(new String[] {"a.example.com", "b.example.com"}, prefs.get(servers));
+        assertEquals(30, prefs.getInt(new IntKey("timeout")));
+        assertNull(prefs.get(new TypedKey<>("absent", String.class)));
+        Set<String> keys = prefs.keys();
+        assertEquals(values.keySet(), keys);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link StartupProfile}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class StartupProfileTest {
+
+    private static final TypedKey<Map<String, List<Integer>>> CATALOG =
+            new TypedKey<>("catalog", new TypeToken<Map<String, List<Integer>>>() {});
+    private static final TypedKey<String> ROOM = new TypedKey<>("room", String.class, "my_props", true);
+    private static final TypedKey<Integer> AGE = new TypedKey<>("age", Integer.class, false);
+
+    private static final Gson gson = new Gson();
+    private Context context;
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(null, StartupProfile.PREFS_FILE_NAME, "my_props");
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void typeNamesRoundTrip() throws Exception {
+        Type[] types = {
+            String.class,
+            int[].class,
+            String[][].class,
+            new TypeToken<Map<String, List<Integer>>>() {}.getType(),
+            new TypeToken<List<String>[]>() {}.getType(),
+        };
+        for (Type type : types) {
+            String name = TypeNames.toString(type);
+            assertEquals(TypeToken.get(type), TypeToken.get(TypeNames.parse(name, getClass().getClassLoader())));
+        }
+        assertEquals("java.util.List<java.lang.String>", TypeNames.toString(new TypeToken<List<String>>() {}.getType()));
+        assertNull(TypeNames.toString(new TypeToken<List<? extends Number>>() {}.getType()));
+    }
+
+    @Test
+    public void recordAndReplay() throws Exception {
+        Prefs prefs = new Prefs(context, gson);
+        Prefs namedPrefs = new Prefs(context, gson, "my_props", 10);
+        prefs.put(CATALOG, Collections.singletonMap("movies", Arrays.asList(1, 2)));
+        namedPrefs.put(ROOM, "kitchen");
+        prefs.put(AGE, 30);
+
+        StartupProfile profile = new StartupProfile(executor, 1, TimeUnit.HOURS, 1);
+        profile.start(Arrays.asList(prefs, namedPrefs));
+        prefs.get(CATALOG);
+        namedPrefs.get(ROOM);
+        prefs.get(AGE); // not cacheable
+        prefs.get(CATALOG);
+        profile.stop();
+        prefs.get(new TypedKey<>("late", String.class)); // after the window
+        SharedPreferences storage = context.getSharedPreferences(StartupProfile.PREFS_FILE_NAME, Context.MODE_PRIVATE);
+        assertEquals("\tcatalog\tjava.util.Map<java.lang.String,java.util.List<java.lang.Integer>>\n"
+                + "my_props\troom\tjava.lang.String", storage.getString("keys", null));
+
+        // Next startup
+        prefs = new Prefs(context, gson);
+        namedPrefs = new Prefs(context, gson, "my_props", 10);
+        assertNull(prefs.cache.get("catalog"));
+        new StartupProfile(executor, 1, TimeUnit.HOURS, 1).start(Arrays.asList(prefs, namedPrefs)).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonMap("movies", Arrays.asList(1, 2)), prefs.cache.get("catalog"));
+        assertEquals("kitchen", namedPrefs.cache.get("room"));
+        assertNull(prefs.cache.get("age"));
+    }
+
+    @Test
+    public void profileOfOtherVersionIsDiscarded() throws Exception {
+        Prefs prefs = new Prefs(context, gson);
+        prefs.put(CATALOG, Collections.singletonMap("movies", Arrays.asList(1, 2)));
+        StartupProfile profile = new StartupProfile(executor, 1, TimeUnit.HOURS, 1);
+        profile.start(Collections.singletonList(prefs));
+        prefs.get(CATALOG);
+        profile.stop();
+
+        // Next startup, after an update that may have changed the type of the key
+        prefs = new Prefs(context, gson);
+        new StartupProfile(executor, 1, TimeUnit.HOURS, 2).start(Collections.singletonList(prefs)).get(5, TimeUnit.SECONDS);
+        assertNull(prefs.cache.get("catalog"));
+    }
+
+    @Test
+    public void savedOnceWindowPasses() throws Exception {
+        Prefs prefs = new Prefs(context, gson);
+        prefs.put(CATALOG, Collections.<String, List<Integer>>emptyMap());
+        SharedPrefs.TestAccess.init(new StartupProfile(executor, 0, TimeUnit.MILLISECONDS, 1), prefs).get(5, TimeUnit.SECONDS);
+        SharedPreferences storage = context.getSharedPreferences(StartupProfile.PREFS_FILE_NAME, Context.MODE_PRIVATE);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals("", storage.getString("keys", null));
+    }
+}
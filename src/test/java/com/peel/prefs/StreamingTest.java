@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Unit tests for streaming JSON values from and to {@link LogStore} and {@link SnapshotStore}
+ *
+ * @author Inderjeet Singh
+ */
+public class StreamingTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final TypedKey<List<String>> LIST = new TypedKey<>("list", new TypeToken<List<String>>() {});
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> largeList() {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) list.add("item é中😀 " + i);
+        return list;
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[1000];
+        for (int read; (read = reader.read(buffer)) >= 0;) sb.append(buffer, 0, read);
+        reader.close();
+        return sb.toString();
+    }
+
+    private static PrefsStore.StringSource source(final String value) {
+        return new PrefsStore.StringSource() {
+            @Override public void writeTo(Writer out) throws IOException {
+                for (int i = 0; i < value.length(); i += 7) {
+                    out.write(value, i, Math.min(7, value.length() - i)); // splits surrogate pairs
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testLogStoreStreamsLargeValues() throws Exception {
+        File file = new File(folder.getRoot(), "prefs.log");
+        LogStore store = new LogStore(file, DIRECT);
+        Prefs prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        List<String> list = largeList();
+        prefs.put(LIST, list);
+        assertTrue(store.getStringSize(LIST.getName()) > LogStore.STREAMING_THRESHOLD);
+        assertEquals(new Gson().toJson(list), store.getString(LIST.getName(), null));
+        store.close();
+
+        store = new LogStore(file, DIRECT);
+        prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        assertEquals(list, prefs.get(LIST));
+        store.close();
+    }
+
+    @Test
+    public void testLogStoreStreamedStrings() throws Exception {
+        LogStore store = new LogStore(new File(folder.getRoot(), "prefs.log"), DIRECT);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2 * LogStore.STREAMING_THRESHOLD) sb.append("aé中😀");
+        String value = sb.toString();
+        String malformed = "x\ud83dy\ude00\ud83d";
+        ((PrefsStore.StreamingEditor) store.edit()).putString("large", source(value))
+            .putString("small", source("small"))
+            .putString("malformed", source(malformed))
+            .apply();
+        assertEquals(value, store.getString("large", null));
+        assertEquals(value, read(store.getStringReader("large")));
+        assertEquals("small", read(store.getStringReader("small")));
+        assertEquals(new String(malformed.getBytes(StoreValues.UTF_8), StoreValues.UTF_8), store.getString("malformed", null));
+        assertEquals(value.getBytes(StoreValues.UTF_8).length, store.getStringSize("large"));
+        assertEquals(-1, store.getStringSize("absent"));
+        assertNull(store.getStringReader("absent"));
+        store.close();
+    }
+
+    @Test
+    public void testLogStoreReaderSurvivesCompaction() throws Exception {
+        File file = new File(folder.getRoot(), "prefs.log");
+        LogStore store = new LogStore(file, DIRECT);
+        String value = Collections.nCopies(LogStore.STREAMING_THRESHOLD, "ab").toString();
+        store.edit().putString("large", value).apply();
+        Reader reader = store.getStringReader("large");
+        store.edit().putString("large", "replaced").apply();
+        store.compact();
+        assertEquals(value, read(reader));
+        assertEquals("replaced", store.getString("large", null));
+        store.close();
+    }
+
+    @Test
+    public void testSnapshotStoreStreamsLargeValues() throws Exception {
+        File file = new File(folder.getRoot(), "prefs.snapshot");
+        List<String> list = largeList();
+        String json = new Gson().toJson(list);
+        SnapshotStore.write(file, Collections.singletonMap(LIST.getName(), json));
+        SnapshotStore store = new SnapshotStore(file, DIRECT);
+        assertEquals(json, read(store.getStringReader(LIST.getName())));
+        assertEquals(json.getBytes(StoreValues.UTF_8).length, store.getStringSize(LIST.getName()));
+        Prefs prefs = new Prefs(store, new Gson(), null, new ConcurrentValueCache(25));
+        assertEquals(list, prefs.get(LIST));
+
+        store.edit().putString(LIST.getName(), "[\"changed\"]").apply();
+        assertEquals("[\"changed\"]", read(store.getStringReader(LIST.getName())));
+        store.edit().remove(LIST.getName()).apply();
+        assertNull(store.getStringReader(LIST.getName()));
+        assertEquals(-1, store.getStringSize(LIST.getName()));
+        store.close();
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testReaderOfNonString() throws Exception {
+        LogStore store = new LogStore(new File(folder.getRoot(), "prefs.log"), DIRECT);
+        try {
+            store.edit().putInt("count", 1).apply();
+            store.getStringReader("count");
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testStringReaderOfSmallValues() throws Exception {
+        LogStore store = new LogStore(new File(folder.getRoot(), "prefs.log"), DIRECT);
+        store.edit().putString("small", "value").apply();
+        assertTrue(store.getStringReader("small") instanceof StringReader);
+        store.close();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for the operations on keys by tag
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class TagTest {
+
+    private static final TypedKey<String> USER_NAME = new TypedKey<>("userName", String.class, "session");
+    private static final TypedKey<Integer> USER_AGE = new TypedKey<>("userAge", Integer.class, false, "session", "profile");
+    private static final TypedKey<String> DEVICE_ID = new TypedKey<>("deviceId", String.class);
+    private static final TypedKey<String> ROOM = new TypedKey<>("room", String.class, "my_props", true, "session");
+    private static final IntKey LOGIN_COUNT = new IntKey("loginCount", "session");
+
+    private Context context;
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private int applyCount;
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        }, "my_props");
+        prefs = new Prefs(context, gson);
+    }
+
+    @Test
+    public void keysAreRegisteredOnPut() {
+        assertTrue(prefs.keysWithTag("session").isEmpty());
+        prefs.put(USER_NAME, "john");
+        prefs.put(USER_AGE, 30);
+        prefs.put(DEVICE_ID, "abc");
+        assertEquals(2, prefs.keysWithTag("session").size());
+        assertEquals(Arrays.<TypedKey<?>>asList(USER_AGE), Arrays.asList(prefs.keysWithTag("profile").toArray()));
+    }
+
+    @Test
+    public void registerKeysStoredEarlier() {
+        prefs.put("userName", String.class, "john"); // as if stored in an earlier session
+        prefs.register(USER_NAME, USER_AGE, DEVICE_ID);
+        Map<TypedKey<?>, Object> values = prefs.getAll("session");
+        assertEquals(1, values.size());
+        assertEquals("john", values.get(USER_NAME));
+    }
+
+    @Test
+    public void removeAllWithSingleApply() {
+        prefs.put(USER_NAME, "john");
+        prefs.put(USER_AGE, 30);
+        prefs.put(DEVICE_ID, "abc");
+        applyCount = 0;
+        prefs.removeAll("session");
+        assertEquals(1, applyCount);
+        assertFalse(prefs.contains(USER_NAME));
+        assertFalse(prefs.contains(USER_AGE));
+        assertEquals("abc", prefs.get(DEVICE_ID));
+        assertTrue(prefs.getAll("session").isEmpty());
+    }
+
+    @Test
+    public void primitivePutRegistersKey() {
+        prefs.putInt(LOGIN_COUNT, 3);
+        assertTrue(prefs.keysWithTag("session").contains(LOGIN_COUNT));
+        prefs.removeAll("session");
+        assertFalse(prefs.contains(LOGIN_COUNT));
+    }
+
+    @Test
+    public void preloadCachesCacheableKeys() {
+        prefs.register(USER_NAME, USER_AGE);
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        sharedPrefs.edit().putString("userName", "john").putInt("userAge", 30).apply();
+        assertNull(prefs.cache.get("userName"));
+        prefs.preload("session");
+        assertEquals("john", prefs.cache.get("userName"));
+        assertNull(prefs.cache.get("userAge")); // not cacheable
+        assertEquals(30, prefs.get(USER_AGE).intValue());
+    }
+
+    @Test
+    public void preloadWeighsValuesForByteBudget() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(1000);
+        prefs = new Prefs(context, gson, null, cache);
+        prefs.register(USER_NAME);
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putString("userName", "john").apply();
+        prefs.preload("session");
+        assertEquals(Codec.weighString(4), cache.weight());
+    }
+
+    @Test
+    public void sharedPrefsRemoveAllAcrossFiles() {
+        SharedPrefs.TestAccess.init(prefs, new Prefs(context, gson, "my_props", 10));
+        SharedPrefs.put(USER_NAME, "john");
+        SharedPrefs.put(ROOM, "kitchen");
+        assertEquals(2, SharedPrefs.getAll("session").size());
+        SharedPrefs.removeAll("session");
+        assertFalse(SharedPrefs.contains(USER_NAME));
+        assertFalse(SharedPrefs.contains(ROOM));
+    }
+}
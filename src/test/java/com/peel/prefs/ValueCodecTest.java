@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link TypedKey#withValueCodec(ValueCodec)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class ValueCodecTest {
+
+    private Prefs prefs;
+    private SharedPreferences persistPrefs;
+    private int applyCount;
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        });
+        prefs = new Prefs(context, new Gson());
+    }
+
+    private static TypedKey<List<Integer>> key(boolean cacheable) {
+        TypeToken<List<Integer>> type = new TypeToken<List<Integer>>() {};
+        return new TypedKey<>("ids", type, null, cacheable).withValueCodec(BinaryCodec.of(type));
+    }
+
+    @Test
+    public void storedAsBase64() {
+        prefs.put(key(false), Arrays.asList(1, 2, 3));
+        assertEquals("AQMCBAY=", persistPrefs.getString("ids", null)); // version, size, zigzag numbers
+        assertEquals(Arrays.asList(1, 2, 3), prefs.get(key(false)));
+        assertEquals(Arrays.asList(1, 2, 3), prefs.get(key(true)));
+    }
+
+    @Test
+    public void putNullRemoves() {
+        prefs.put(key(false), Arrays.asList(1));
+        prefs.put(key(false), null);
+        assertFalse(persistPrefs.contains("ids"));
+        assertNull(prefs.get(key(false)));
+    }
+
+    @Test
+    public void skipUnchangedWritesComparesBytes() {
+        TypedKey<List<Integer>> key = key(false).withSkipUnchangedWrites(true);
+        prefs.put(key, Arrays.asList(1, 2));
+        prefs.put(key, Arrays.asList(1, 2));
+        assertEquals(1, applyCount);
+        assertEquals(1, prefs.getSkippedWriteCount());
+    }
+
+    @Test
+    public void migratesValuesStoredWithoutTheCodec() {
+        persistPrefs.edit().putString("ids", "[1,2,3]").apply();
+        assertNull(prefs.get(key(false)));
+        TypedKey<List<Integer>> key = key(false).withSkipUnchangedWrites(true);
+        prefs.put(key, Arrays.asList(1, 2, 3));
+        assertEquals("AQMCBAY=", persistPrefs.getString("ids", null));
+        assertEquals(Arrays.asList(1, 2, 3), prefs.get(key));
+
+        persistPrefs.edit().putInt("ids", 5).apply();
+        assertNull(prefs.get(key(false)));
+        prefs.put(key, Arrays.asList(1, 2, 3));
+        assertEquals("AQMCBAY=", persistPrefs.getString("ids", null));
+    }
+
+    @Test
+    public void customCodec() {
+        TypedKey<String> key = new TypedKey<>("reversed", String.class).withValueCodec(new ValueCodec<String>() {
+            @Override public byte[] encode(String value) {
+                return new StringBuilder(value).reverse().toString().getBytes();
+            }
+            @Override public String decode(byte[] bytes) {
+                return new StringBuilder(new String(bytes)).reverse().toString();
+            }
+        });
+        prefs.put(key, "abc");
+        assertEquals("Y2Jh", persistPrefs.getString("reversed", null));
+        prefs.cache.clear();
+        assertEquals("abc", prefs.get(key));
+    }
+}
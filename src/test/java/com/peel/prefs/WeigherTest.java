@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs} with a byte-budgeted {@link ConcurrentValueCache}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class WeigherTest {
+
+    private Context context;
+    private static final Gson gson = new Gson();
+
+    @Before
+    public void setUp() {
+        context = AndroidFixtures.createMockContext();
+    }
+
+    @Test
+    public void weighedBySerializedSize() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(10000);
+        Prefs prefs = new Prefs(context, gson, null, cache);
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) list.add("item" + i);
+        TypedKey<List<String>> key = new TypedKey<>("list", new TypeToken<List<String>>() {});
+        prefs.put(key, list);
+        assertEquals(Codec.weighString(gson.toJson(list).length()), cache.weight());
+
+        prefs.put(new TypedKey<>("flag", Boolean.class), true);
+        assertEquals(Codec.weighString(gson.toJson(list).length()) + 16, cache.weight());
+    }
+
+    @Test
+    public void largeValuesNotCachedWhileSmallOnesAre() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(2000);
+        Prefs prefs = new Prefs(context, gson, null, cache);
+        for (int i = 0; i < 100; ++i) {
+            prefs.put(new TypedKey<>("flag" + i, Boolean.class), true);
+        }
+        assertEquals(100, cache.size());
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) large.append("abcd");
+        TypedKey<String> blob = new TypedKey<>("blob", String.class);
+        prefs.put(blob, large.toString());
+        assertNull(cache.get("blob"));
+        assertEquals(large.toString(), prefs.get(blob));
+        assertNotNull(cache.get("flag0"));
+    }
+
+    @Test
+    public void customWeigher() {
+        ConcurrentValueCache cache = ConcurrentValueCache.withByteBudget(1000);
+        Prefs prefs = new Prefs(context, gson, null, cache);
+        TypedKey<String> key = new TypedKey<>("key", String.class).withWeigher(new Weigher<String>() {
+            @Override public int weigh(String value) {
+                return 500;
+            }
+        });
+        prefs.put(key, "a");
+        assertEquals(500, cache.weight());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 Peel Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.peel.prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gson.Gson;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Unit tests for {@link Prefs#enableWriteBehind(ScheduledExecutorService, long, long, TimeUnit)}
+ *
+ * @author Inderjeet Singh
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, SharedPreferences.class, PreferenceManager.class})
+public class WriteBehindTest {
+
+    private Prefs prefs;
+    private static final Gson gson = new Gson();
+    private SharedPreferences persistPrefs;
+    private volatile int applyCount;
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        Context context = AndroidFixtures.createMockContext(new AndroidFixtures.PrefsListener() {
+            @Override public void onInit(SharedPreferences persist) {
+                persistPrefs = persist;
+            }
+            @Override public void onApply() {
+                ++applyCount;
+            }
+        });
+        prefs = new Prefs(context, gson);
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readsSeeLatestValueBeforeFlush() {
+        prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+        TypedKey<Long> position = new TypedKey<>("position", Long.class);
+        for (long i = 0; i < 100; ++i) {
+            prefs.put(position, i);
+        }
+        assertEquals(99L, (long) prefs.get(position));
+        assertTrue(prefs.contains(position));
+        assertFalse(persistPrefs.contains("position"));
+        assertEquals(0, applyCount);
+
+        prefs.flush();
+        assertEquals(1, applyCount);
+        assertEquals(99L, persistPrefs.getLong("position", 0L));
+        assertEquals(99L, (long) prefs.get(position));
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedFlushIsScheduledByNextChange() throws Exception {
+        ScheduledExecutorService rejectsOnce = new ScheduledThreadPoolExecutor(1) {
+            private boolean rejected;
+            @Override public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                if (!rejected) {
+                    rejected = true;
+                    throw new RejectedExecutionException();
+                }
+                return super.schedule(command, delay, unit);
+            }
+        };
+        try {
+            prefs.enableWriteBehind(rejectsOnce, 1, 1, TimeUnit.MILLISECONDS);
+            TypedKey<Long> position = new TypedKey<>("position", Long.class);
+            try {
+                prefs.put(position, 1L);
+            } catch (RejectedExecutionException expected) {
+            }
+            assertEquals(1L, (long) prefs.get(position)); // kept for the next flush
+            prefs.put(position, 2L);
+            while (!persistPrefs.contains("position")) Thread.sleep(5);
+            assertEquals(2L, persistPrefs.getLong("position", 0L));
+        } finally {
+            rejectsOnce.shutdownNow();
+        }
+    }
+
+    @Test
+    public void removesAndPrimitives() {
+        prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        IntKey counter = new IntKey("counter");
+        prefs.put(key, "a");
+        prefs.putInt(counter, 5);
+        assertEquals(5, prefs.getInt(counter));
+        prefs.remove(key);
+        assertNull(prefs.get(key));
+        assertFalse(prefs.contains(key));
+        prefs.flush();
+        assertFalse(persistPrefs.contains("key"));
+        assertEquals(5, persistPrefs.getInt("counter", 0));
+        assertEquals(1, applyCount);
+    }
+
+    @Test
+    public void batchWrittenWithNextFlush() {
+        prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        prefs.edit().put(key, "a").apply();
+        assertEquals("a", prefs.get(key));
+        assertEquals(0, applyCount);
+        prefs.flush();
+        assertEquals("a", persistPrefs.getString("key", null));
+    }
+
+    @Test
+    public void writtenAfterDebounce() throws Exception {
+        prefs.enableWriteBehind(executor, 10, 1000, TimeUnit.MILLISECONDS);
+        TypedKey<Integer> key = new TypedKey<>("key", Integer.class);
+        for (int i = 0; i < 10; ++i) {
+            prefs.put(key, i);
+        }
+        for (int i = 0; i < 100 && !persistPrefs.contains("key"); ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(9, persistPrefs.getInt("key", 0));
+        assertEquals(1, applyCount);
+    }
+
+    @Test
+    public void writtenWithinMaxDelayEvenIfChangedContinuously() throws Exception {
+        prefs.enableWriteBehind(executor, 50, 100, TimeUnit.MILLISECONDS);
+        TypedKey<Integer> key = new TypedKey<>("key", Integer.class);
+        long end = System.currentTimeMillis() + 1000;
+        for (int i = 0; System.currentTimeMillis() < end && !persistPrefs.contains("key"); ++i) {
+            prefs.put(key, i);
+            Thread.sleep(5);
+        }
+        assertTrue(persistPrefs.contains("key"));
+    }
+
+    @Test
+    public void disableFlushes() {
+        prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        prefs.put(key, "a");
+        prefs.disableWriteBehind();
+        assertEquals("a", persistPrefs.getString("key", null));
+        prefs.put(key, "b");
+        assertEquals("b", persistPrefs.getString("key", null));
+    }
+
+    @Test
+    public void clearDiscardsPendingChanges() {
+        prefs.enableWriteBehind(executor, 1, 1, TimeUnit.HOURS);
+        TypedKey<String> key = new TypedKey<>("key", String.class);
+        prefs.put(key, "a");
+        prefs.clear();
+        assertNull(prefs.get(key));
+        prefs.flush();
+        assertFalse(persistPrefs.contains("key"));
+    }
+}